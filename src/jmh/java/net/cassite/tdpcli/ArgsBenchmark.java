@@ -0,0 +1,23 @@
+package net.cassite.tdpcli;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ArgsBenchmark {
+    private static final String[] ARGS = {
+        "--force-intel", "--pl1=45", "--pl2=64", "--time1=28",
+        "--enable2=true", "--clamping1=true", "--clamping2=false",
+        "--print-format=json", "--log-level=warn",
+    };
+
+    @Benchmark
+    public Args parse() {
+        var args = new Args();
+        args.parse(ARGS);
+        return args;
+    }
+}
@@ -0,0 +1,36 @@
+package net.cassite.tdpcli;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PowerLimitBenchmark {
+    private PowerLimit powerLimit;
+
+    @Setup
+    public void setup() {
+        powerLimit = new PowerLimit();
+        powerLimit.locked = false;
+        powerLimit.pl1.enabled = true;
+        powerLimit.pl1.power = 45;
+        powerLimit.pl1.clamping = true;
+        powerLimit.pl1.time = 28;
+        powerLimit.pl2.enabled = true;
+        powerLimit.pl2.power = 64;
+        powerLimit.pl2.clamping = false;
+        powerLimit.pl2.time = 0.00244140625;
+    }
+
+    @Benchmark
+    public String formatToJson() {
+        return powerLimit.formatToJson().stringify();
+    }
+
+    @Benchmark
+    public String formatToTable() {
+        return powerLimit.formatToTable();
+    }
+}
@@ -0,0 +1,70 @@
+package net.cassite.tdpcli;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PowerLimitCodecBenchmark {
+    // power = 1/8 W, energy = 1/2^14 J, time = 1/2^10 s
+    private static final long UNITS = 0x000A0E03L;
+    // pl1 = 45 W, 28 s, pl2 = 64 W, 2.44 ms
+    private static final long VALUE = 0x00428200_00DC8168L;
+
+    private PowerLimitCodec codec;
+    private Args changeAll;
+    private Args changeTime;
+    private Args unchanged;
+
+    @Setup
+    public void setup() {
+        codec = IntelPlatform.parseUnits(UNITS).codec;
+
+        changeAll = new Args();
+        changeAll.pl1 = 35.5;
+        changeAll.pl2 = 50.0;
+        changeAll.enable2 = true;
+        changeAll.clamping1 = true;
+        changeAll.clamping2 = true;
+        changeAll.time1 = 56.0;
+
+        changeTime = new Args();
+        changeTime.time1 = 56.0;
+
+        var current = codec.decode(VALUE);
+        unchanged = new Args();
+        unchanged.pl1 = current.pl1.power;
+        unchanged.pl2 = current.pl2.power;
+        unchanged.time1 = current.pl1.time;
+    }
+
+    @Benchmark
+    public Object parseUnits() {
+        return IntelPlatform.parseUnits(UNITS);
+    }
+
+    @Benchmark
+    public PowerLimit decode() {
+        return codec.decode(VALUE);
+    }
+
+    @Benchmark
+    public long encodeAll() {
+        return codec.encode(VALUE, changeAll, 0, 0);
+    }
+
+    /**
+     * Only the time window differs, which runs the time window search.
+     */
+    @Benchmark
+    public long encodeTime() {
+        return codec.encode(VALUE, changeTime, 0, 0);
+    }
+
+    @Benchmark
+    public long encodeUnchanged() {
+        return codec.encode(VALUE, unchanged, 0, 0);
+    }
+}
@@ -0,0 +1,31 @@
+package net.cassite.tdpcli;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RWOutputParserBenchmark {
+    private static final String RDMSR_LOC = "0x610";
+    private static final String RDMSR_OUTPUT = "Read MSR 0x610: High 32bit(EDX) = 0x00428200, Low 32bit(EAX) = 0x00DC8168";
+    private static final String R32_LOC = "0xFEDD59A0";
+    private static final String R32_OUTPUT = "Read Memory Address 0xFEDD59A0 = 0x00DC8168";
+    private static final String RPCI32_OUTPUT = "Read PCI Bus/Dev/Fun/Offset 0x00/0x00/0x00/0x048 = 0xFEDC0001";
+
+    @Benchmark
+    public long parseReadMSR() {
+        return RWOutputParser.parseReadMSR(RDMSR_LOC, RDMSR_OUTPUT, 0, RDMSR_OUTPUT.length());
+    }
+
+    @Benchmark
+    public int parseRead32() {
+        return RWOutputParser.parseRead32(R32_LOC, R32_OUTPUT, 0, R32_OUTPUT.length());
+    }
+
+    @Benchmark
+    public long parseReadPCI32() {
+        return RWOutputParser.parseReadPCI32("0x00", "0x00", "0x00", "0x048", RPCI32_OUTPUT, 0, RPCI32_OUTPUT.length());
+    }
+}
@@ -0,0 +1,26 @@
+package net.cassite.tdpcli.daemon;
+
+import io.vproxy.dep.vjson.JSON;
+import net.cassite.tdpcli.Args;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PowerLimitArgsBenchmark {
+    private static final String BODY = "{\"pl1\":{\"power\":45,\"time\":28,\"clamping\":true},\"pl2\":{\"enabled\":true,\"power\":64,\"clamping\":false}}";
+
+    @Benchmark
+    public PowerLimitArgs deserialize() {
+        return JSON.deserialize(BODY, PowerLimitArgs.rule);
+    }
+
+    @Benchmark
+    public Args deserializeAndAssign() {
+        var args = new Args();
+        JSON.deserialize(BODY, PowerLimitArgs.rule).checkAndAssignToArgs(args);
+        return args;
+    }
+}
@@ -3,8 +3,11 @@ module tdpcli {
     requires kotlinx.coroutines.core.jvm;
     requires com.github.oshi;
     requires io.vproxy.all;
+    requires jdk.net;
 
     exports net.cassite.tdpcli;
     exports net.cassite.tdpcli.daemon;
+    exports net.cassite.tdpcli.daemon.telemetry;
+    exports net.cassite.tdpcli.exec;
     exports net.cassite.tdpcli.util;
 }
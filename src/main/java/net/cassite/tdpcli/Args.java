@@ -6,6 +6,7 @@ import net.cassite.tdpcli.util.PrintFormat;
 import net.cassite.tdpcli.util.Utils;
 import net.cassite.tdpcli.util.Version;
 
+import java.util.Objects;
 import java.util.function.Consumer;
 
 import static net.cassite.tdpcli.Consts.allowedHelpVariations;
@@ -19,16 +20,20 @@ public class Args {
           tdpcli [options]
           tdpcli --show-api                      show http restful api in daemon mode
         Options:
-          --pl<N>=<w>                            set long/short duration power consumption (Watts)
+          --pl<N>=<w>                            set long/short duration power consumption (Watts, decimals allowed)
                                                  min: 10, max: 200
           --clamping<N>=<b>                      enable or disable long/short duration power limit clamping (bool)
-          --time1=<s>                            set long duration power limit time window (seconds)
+          --time1=<s>                            set long duration power limit time window (seconds, decimals allowed)
                                                  min: 1, max: 60
           --enable2=<b>                          enable or disable short duration power limit (bool)
 
           --force-intel                          use the `intel` way of modifying settings
           --force-amd                            use the `amd` way of modifying settings
           --daemon                               run as a daemon
+          --no-cache                             do not cache values which are static until reboot, e.g. units
+          --no-daemon                            access the hardware directly even if a daemon is running
+                                                 by default, reads and writes are sent to the daemon via its unix socket
+                                                 except with --powercap, or writes with --msr or --mmio
 
           --print-format=<table|json>            print format
           --log-level=<enum>                     log level (all|debug|info|warn|error|none)
@@ -40,45 +45,135 @@ public class Args {
           --mmio                                 use mmio to get or set power limit
                                                  You can specify both --msr and --mmio when modifying, but not when retrieving
                                                  If non specified, msr will be used when retrieving, both will be used when modifying
+        Linux Options:
+          --powercap                             use the powercap framework (intel-rapl sysfs) to get or set power limit
         Environment Variables:
           TDPCLI_RW_EVERYTHING_PATH              the path to rw.exe (required for intel processors)
                                                  will use 'C:\\Program Files\\RW-Everything\\RW.exe' by default
           TDPCLI_RYZENADJ_PATH                   the path to ryzenadj.exe (required for amd processors)
                                                  will use '' by default
+          TDPCLI_LINUX_MSR_PATH                  the msr device used on linux, only one cpu package is configured when set
+                                                 will use '/dev/cpu/N/msr' of one cpu in each package by default
+          TDPCLI_LINUX_CPU_PATH                  the cpu sysfs directory used on linux to discover cpu packages
+                                                 will use '/sys/devices/system/cpu' by default
+          TDPCLI_LINUX_PCI_PATH                  the pci devices directory used on linux to find mchbar
+                                                 will use '/sys/bus/pci/devices' by default
+          TDPCLI_LINUX_MEM_PATH                  the physical memory device used on linux to access mchbar
+                                                 will use '/dev/mem' by default
+          TDPCLI_POWERCAP_PATH                   the powercap sysfs directory used with --powercap
+                                                 will use '/sys/class/powercap' by default
+          TDPCLI_THERMAL_PATH                    the thermal sysfs directory used with --powercap to read package temperature
+                                                 will use '/sys/class/thermal' by default
+          TDPCLI_SOCKET_PATH                     the unix socket of a running daemon, which reads and writes are sent to
+                                                 will use '/run/tdpcli/tdpcli.sock' on linux and 'tdpcli.sock' in the
+                                                 temp directory on other systems by default
+                                                 only used if the daemon runs as root or the current user
         """.trim();
     private static final String apiMsg = """
         GET /tdpcli/api/v1.0/version             get server version
         GET /tdpcli/api/v1.0/power_limit         retrieve power limit, successful response status code is 200
                                                  on intel platforms, you may add an optional query: mode=<msr|mmio>, default msr
+                                                 the result may be cached for readCacheTTL, the Age and X-Sample-Age-Millis
+                                                 response headers tell how old the value is
         PUT /tdpcli/api/v1.0/power_limit         update power limit, request body is in the same format as the GET method
                                                  successful response status code is 204
+                                                 the X-Update-Result response header is one of:
+                                                   applied: the power limit is written
+                                                   merged: written together with a request arriving within applyDebounce
+                                                   noop: the request equals the current desired power limit
                                                  The daemon will set the power limit to desired value every few seconds
+        GET /tdpcli/api/v1.0/power               retrieve recent package power samples (Watts) and statistics
+                                                 optional queries: samples=<n>, number of recent samples, default 60
+                                                                   window=<s>[,<s>...], statistics windows in seconds, default 10,60,300
+        GET /tdpcli/api/v1.0/history             retrieve persisted power and power limit history
+                                                 optional queries: resolution=<raw|1s|1m|1h>, default 1m
+                                                                   from=<ms>, to=<ms>, unix timestamps, default the last hour
+                                                                   limit=<n>, max number of records from `from`, default 1000
         GET /tdpcli/api/v1.0/config              retrieve daemon config
                                                  body: {
                                                    "interval": integer, seconds, the interval between config check and set
+                                                   "cacheRevalidate": integer, seconds, re-read cached static values (e.g. units)
+                                                                      after this period, 0 means never
+                                                   "readCacheTTL": integer, millis, how long a GET power_limit result is cached
+                                                   "fastInterval": integer, millis, the interval used after drift is detected,
+                                                                   0 means the same as interval
+                                                   "maxInterval": integer, seconds, the interval doubles up to this value
+                                                                  while no drift is detected, 0 means no backoff
+                                                   "powerTolerance": double, watts, differences within it are not rewritten
+                                                   "timeTolerance": double, seconds, differences within it are not rewritten
+                                                   "sampleInterval": integer, millis, the interval of package power sampling,
+                                                                     0 means disabled, which is the default
+                                                                     set it (e.g. 1000) to enable GET power, the telemetry
+                                                                     history and the telemetry events of GET watch
+                                                   "sampleCapacity": integer, the number of power samples kept in memory
+                                                   "applyDebounce": integer, millis, PUT power_limit requests within it are
+                                                                    written together, 0 means disabled
+                                                   "telemetryPath": string, the directory of persisted history, empty means disabled,
+                                                                    which is the default, records are written by the power
+                                                                    sampling, only configurable via --config
+                                                   "telemetryBudget": integer, MiB, disk budget of each history resolution
+                                                                      only configurable via --config
+                                                   "statePath": string, the file keeping the desired power limit and the
+                                                                config fields modified by PUT config across restarts,
+                                                                empty means disabled
+                                                                saved values override --config (with a warning if they
+                                                                differ) and are overridden by power limit options on
+                                                                the command line
+                                                                only configurable via --config
+                                                   "socketPath": string, the unix socket the cli sends requests to,
+                                                                 empty means disabled, only configurable via --config
+                                                   "governor": bool, adjust pl1 and pl2 by cpu load, overrides the pl1 and pl2
+                                                               set by PUT power_limit while enabled, which are
+                                                               kept and restored when it's disabled
+                                                   "governorInterval": integer, millis, the interval of cpu load sampling
+                                                   "governorPl1Floor", "governorPl1Ceiling": double, watts, range of pl1
+                                                   "governorPl2Floor", "governorPl2Ceiling": double, watts, range of pl2
+                                                   "governorSmoothing": double, (0, 1], weight of the newest load sample
+                                                   "governorHysteresis": double, watts, smaller changes are not applied
+                                                   "thermal": bool, cap pl1 with a PID controller by package temperature
+                                                   "thermalInterval": integer, millis, the interval of temperature sampling
+                                                   "thermalTarget": double, celsius, keep it a few degrees below tjmax
+                                                   "thermalKp", "thermalKi", "thermalKd": double, gains of the controller,
+                                                                   watts per celsius, per celsius second, per celsius/s
+                                                   "thermalPl1Floor", "thermalPl1Ceiling": double, watts, range of the cap
                                                  }
         PUT /tdpcli/api/v1.0/config              modify daemon config
+        GET /tdpcli/api/v1.0/governor            retrieve the latest governor decision and recent changes
+        GET /tdpcli/api/v1.0/thermal             retrieve the latest thermal controller state
+        GET /tdpcli/api/v1.0/watch               server-sent events of state changes:
+                                                   args: desired power limit is updated, data: {"source", "args"}
+                                                   drift: power limit is found modified by others, data: {"desired"}
+                                                   rewrite: power limit is written, data: {"reason", "applied"}
+                                                   lagged: the client is too slow and skipped events, data: {"skipped"}
+                                                 optional queries: telemetry=true, also receive power samples
+                                                                   data: {"timestamp", "watts"}
+        GET /metrics                             metrics in the Prometheus text format, the hardware is not accessed,
+                                                 the reported power limit is the latest one read by the enforcement
+                                                 or GET power_limit
         """.trim();
     public static final int MAX_ALLOWED_WATTS = 200;
     public static final int MIN_ALLOWED_WATTS = 10;
     public static final int MAX_ALLOWED_SECONDS = 60;
     public static final int MIN_ALLOWED_SECONDS = 1;
 
-    public Integer pl1 = null;
-    public Integer pl2 = null;
+    public Double pl1 = null;
+    public Double pl2 = null;
     public Boolean enable2 = null;
     public Boolean clamping1 = null;
     public Boolean clamping2 = null;
-    public Integer time1 = null;
+    public Double time1 = null;
     public boolean forceIntel = false;
     public boolean forceAmd = false;
     public boolean daemon = false;
+    public boolean noCache = false;
+    public boolean noDaemon = false;
     public PrintFormat printFormat = null;
     public LogLevel logLevel = null;
     public IPPort daemonListen = null;
     public String daemonConfig = null;
     public boolean intelMsr = false;
     public boolean intelMmio = false;
+    public boolean powercap = false;
 
     public boolean isModify() {
         return pl1 != null
@@ -121,6 +216,10 @@ public class Args {
                 forceAmd = true;
             } else if (arg.equals("--daemon")) {
                 daemon = true;
+            } else if (arg.equals("--no-cache")) {
+                noCache = true;
+            } else if (arg.equals("--no-daemon")) {
+                noDaemon = true;
             } else if (arg.startsWith("--listen=")) {
                 var v = arg.substring("--listen=".length()).trim();
                 if (!IPPort.validL4AddrStr(v)) {
@@ -133,6 +232,8 @@ public class Args {
                 intelMsr = true;
             } else if (arg.equals("--mmio")) {
                 intelMmio = true;
+            } else if (arg.equals("--powercap")) {
+                powercap = true;
             } else if (arg.startsWith("--pl1=")) {
                 badArg = plArg(arg, "pl1", n -> pl1 = n);
             } else if (arg.startsWith("--pl2=")) {
@@ -176,10 +277,10 @@ public class Args {
     }
 
     @SuppressWarnings("DuplicatedCode")
-    private static String plArg(String arg, String field, Consumer<Integer> setter) {
+    private static String plArg(String arg, String field, Consumer<Double> setter) {
         var str = arg.substring("--plN=".length()).trim();
-        if (Utils.isInteger(str)) {
-            var n = Integer.parseInt(str);
+        if (Utils.isDecimal(str)) {
+            var n = Double.parseDouble(str);
             if (n < MIN_ALLOWED_WATTS) {
                 return field + " out of range: [" + MIN_ALLOWED_WATTS + ", " + MAX_ALLOWED_WATTS + "]";
             } else if (n > MAX_ALLOWED_WATTS) {
@@ -189,7 +290,7 @@ public class Args {
                 return null;
             }
         } else {
-            return str + " is not a valid integer";
+            return str + " is not a valid number";
         }
     }
 
@@ -205,10 +306,10 @@ public class Args {
     }
 
     @SuppressWarnings({"DuplicatedCode", "SameParameterValue"})
-    private static String timeArg(String arg, String field, Consumer<Integer> setter) {
+    private static String timeArg(String arg, String field, Consumer<Double> setter) {
         var str = arg.substring("--timeN=".length()).trim();
-        if (Utils.isInteger(str)) {
-            var n = Integer.parseInt(str);
+        if (Utils.isDecimal(str)) {
+            var n = Double.parseDouble(str);
             if (n < MIN_ALLOWED_SECONDS) {
                 return field + " out of range: [" + MIN_ALLOWED_SECONDS + ", " + MAX_ALLOWED_SECONDS + "]";
             } else if (n > MAX_ALLOWED_SECONDS) {
@@ -218,7 +319,7 @@ public class Args {
                 return null;
             }
         } else {
-            return str + " is not a valid integer";
+            return str + " is not a valid number";
         }
     }
 
@@ -233,10 +334,13 @@ public class Args {
             ", time1=" + time1 +
             ", forceIntel=" + forceIntel +
             ", forceAmd=" + forceAmd +
+            ", noCache=" + noCache +
+            ", noDaemon=" + noDaemon +
             ", printFormat=" + printFormat +
             ", logLevel=" + logLevel +
             ", msr=" + intelMsr +
             ", mmio=" + intelMmio +
+            ", powercap=" + powercap +
             '}';
     }
 
@@ -251,6 +355,15 @@ public class Args {
             '}';
     }
 
+    public boolean plFieldsEquals(Args that) {
+        return Objects.equals(pl1, that.pl1)
+            && Objects.equals(pl2, that.pl2)
+            && Objects.equals(enable2, that.enable2)
+            && Objects.equals(clamping1, that.clamping1)
+            && Objects.equals(clamping2, that.clamping2)
+            && Objects.equals(time1, that.time1);
+    }
+
     public void from(Args that) {
         if (that.pl1 != null) {
             this.pl1 = that.pl1;
@@ -0,0 +1,85 @@
+package net.cassite.tdpcli;
+
+import net.cassite.tdpcli.util.Histogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replays the commands on a {@link RegisterAccess} in order when executed.<br>
+ * Latency of each command is recorded per command type, using the same names as RW-Everything.
+ */
+public class DirectBatch extends RegisterBatch {
+    private static final Map<String, Histogram> latency = Map.of(
+        "RDMSR", new Histogram(),
+        "WRMSR", new Histogram(),
+        "RPCI32", new Histogram(),
+        "R32", new Histogram(),
+        "W32", new Histogram()
+    );
+
+    public static Map<String, Histogram> getLatency() {
+        return latency;
+    }
+
+    private final RegisterAccess access;
+    private final List<Runnable> ops = new ArrayList<>();
+
+    public DirectBatch(RegisterAccess access) {
+        this.access = access;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return ops.isEmpty();
+    }
+
+    private void add(String name, Runnable op) {
+        checkNotExecuted();
+        var histogram = latency.get(name);
+        ops.add(() -> {
+            long start = System.nanoTime();
+            op.run();
+            histogram.record(System.nanoTime() - start);
+        });
+    }
+
+    @Override
+    public Value readMSR(int loc) {
+        var v = new Value();
+        add("RDMSR", () -> v.set(access.readMSR(loc)));
+        return v;
+    }
+
+    @Override
+    public void writeMSR(int loc, long value) {
+        add("WRMSR", () -> access.writeMSR(loc, value));
+    }
+
+    @Override
+    public Value readPCI32(int b, int d, int f, int loc) {
+        var v = new Value();
+        add("RPCI32", () -> v.set(access.readPCI32(b, d, f, loc)));
+        return v;
+    }
+
+    @Override
+    public Value read32(long loc) {
+        var v = new Value();
+        add("R32", () -> v.set(access.read32(loc) & 0xffffffffL));
+        return v;
+    }
+
+    @Override
+    public void write32(long loc, int value) {
+        add("W32", () -> access.write32(loc, value));
+    }
+
+    @Override
+    protected void doExecute() {
+        for (var op : ops) {
+            op.run();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package net.cassite.tdpcli;
+
+/**
+ * A raw reading of a monotonic energy counter, which wraps around at {@link #range}.
+ */
+public class EnergyCounter {
+    public final long value;
+    public final double unit; // joules per count
+    public final long range; // the counter wraps around to 0 when reaching this value
+
+    public EnergyCounter(long value, double unit, long range) {
+        this.value = value;
+        this.unit = unit;
+        this.range = range;
+    }
+
+    /**
+     * @return joules consumed since the previous reading
+     */
+    public double joulesSince(EnergyCounter previous) {
+        long delta = value - previous.value;
+        if (delta < 0) {
+            delta += range;
+        }
+        return delta * unit;
+    }
+
+    @Override
+    public String toString() {
+        return "EnergyCounter{" +
+            "value=" + value +
+            ", unit=" + unit +
+            ", range=" + range +
+            '}';
+    }
+}
@@ -1,448 +1,366 @@
 package net.cassite.tdpcli;
 
+import net.cassite.tdpcli.exec.ProcessExecutor;
 import net.cassite.tdpcli.util.Utils;
 
-import java.io.IOException;
-import java.util.Arrays;
-import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 public class IntelPlatform implements Platform {
-    /*
-     * 2^Y * (1.0 + Z/4.0) * Time_Unit
-     * Y=5bits(0~31), Z=2bits (0,1,2,3)
-     */
-    private static final int TIME_Y_TOTAL = 32;
-    private static final int TIME_Z_TOTAL = 4;
-    private static final double[][] timeTableYZ = new double[TIME_Y_TOTAL][TIME_Z_TOTAL];
-
-    static {
-        int[] numTableY = new int[TIME_Y_TOTAL];
-        for (int i = 0; i < numTableY.length; ++i) {
-            numTableY[i] = 1;
-            for (int j = 0; j < i; ++j) {
-                numTableY[i] *= 2;
-            }
-        }
-        double[] numTableZ = new double[TIME_Z_TOTAL];
-        for (int i = 0; i < numTableZ.length; ++i) {
-            numTableZ[i] = 1 + i / 4.0;
-        }
-        for (int i = 0; i < numTableY.length; ++i) {
-            for (int j = 0; j < numTableZ.length; ++j) {
-                timeTableYZ[i][j] = numTableY[i] * numTableZ[j];
-            }
-        }
-    }
+    private final Supplier<RegisterBatch> batchSupplier;
+
+    // units, mchbar and tjmax do not change until reboot, so they are cached
+    private boolean cacheEnabled = true;
+    private int cacheRevalidateSeconds = 0; // 0 means never revalidate
+    private long cacheTimestamp = System.currentTimeMillis();
+    private Units cachedUnits = null;
+    private long cachedMCHBAR = -1;
+    private int cachedTjMax = -1;
 
-    private final String rwPath;
+    // differences within the tolerance are not rewritten
+    private volatile double powerTolerance = 0; // watts
+    private volatile double timeTolerance = 0; // seconds
 
     public IntelPlatform(String rwPath) {
-        this.rwPath = rwPath;
+        this(rwPath, ProcessExecutor.getDefault());
     }
 
-    private String exec(String... args) {
-        var cmd = new StringBuilder();
-        var isFirst = true;
-        for (var arg : args) {
-            if (isFirst) {
-                isFirst = false;
-            } else {
-                cmd.append(" ");
-            }
-            cmd.append(arg);
-        }
-        var exec = new String[]{
-            rwPath,
-            "/Min", "/Nologo", "/Stdout", "/Command=" + cmd
-        };
-        Utils.debug("execute: " + Arrays.asList(exec));
-        Process p;
-        try {
-            p = Runtime.getRuntime().exec(exec);
-        } catch (IOException e) {
-            throw new EX("failed to execute command " + Arrays.toString(exec), e);
-        }
-        boolean exited;
-        while (true) {
-            try {
-                exited = p.waitFor(5, TimeUnit.SECONDS);
-            } catch (InterruptedException ignore) {
-                continue;
-            }
-            break;
-        }
-        if (!exited) {
-            throw new EX("failed to execute command " + Arrays.toString(exec) + ": timeout");
-        }
-        var reader = p.inputReader();
-        var outputSB = new StringBuilder();
-        var buf = new char[16];
-        while (true) {
-            int n;
-            try {
-                n = reader.read(buf);
-            } catch (IOException e) {
-                throw new EX("failed to retrieve output of " + Arrays.toString(exec), e);
-            }
-            if (n == -1) {
-                break;
-            }
-            outputSB.append(buf, 0, n);
-        }
-        var output = outputSB.toString();
-        if (p.exitValue() != 0) {
-            throw new EX("failed to execute command " + Arrays.toString(exec) + ": exit code: " + p.exitValue() + ", output: " + output);
-        }
-        Utils.debug("output: " + output);
-        return output;
+    public IntelPlatform(String rwPath, ProcessExecutor executor) {
+        this(() -> new RWBatch(rwPath, executor));
     }
 
-    private static final class Units {
-        double power;
-        double time;
+    protected IntelPlatform(Supplier<RegisterBatch> batchSupplier) {
+        this.batchSupplier = batchSupplier;
     }
 
-    @SuppressWarnings("PointlessBitwiseExpression")
-    private Units getUnits() {
-        long value = readMSR(0x606);
+    protected RegisterBatch newBatch() {
+        return batchSupplier.get();
+    }
 
-        int power = (int) ((value >> 0) & 0b1111); // [3:0]
-        int time = (int) ((value >> 16) & 0b1111); // [19:16]
+    public synchronized void setCacheEnabled(boolean cacheEnabled) {
+        this.cacheEnabled = cacheEnabled;
+        invalidateCache();
+    }
 
-        var units = new Units();
-        units.power = Math.pow(0.5, power);
-        units.time = Math.pow(0.5, time);
+    public synchronized void setCacheRevalidateSeconds(int cacheRevalidateSeconds) {
+        this.cacheRevalidateSeconds = cacheRevalidateSeconds;
+    }
 
-        Utils.debug("units: power = 1/2^" + power + ", time = 1/2^" + time);
+    @Override
+    public void setTolerance(double power, double time) {
+        this.powerTolerance = power;
+        this.timeTolerance = time;
+    }
 
-        return units;
+    @Override
+    public synchronized void invalidateCache() {
+        Utils.debug("cache invalidated");
+        cachedUnits = null;
+        cachedMCHBAR = -1;
+        cachedTjMax = -1;
+        cacheTimestamp = System.currentTimeMillis();
     }
 
-    public PowerLimit getMSRPowerLimit() {
-        var units = getUnits();
-        long value = readMSR(0x610);
-        return formatPowerLimit(value, units);
+    private void checkCacheExpiry() {
+        if (cacheRevalidateSeconds > 0 && System.currentTimeMillis() - cacheTimestamp > cacheRevalidateSeconds * 1000L) {
+            invalidateCache();
+        }
     }
 
-    @SuppressWarnings("DuplicatedCode")
-    public PowerLimit getMMIOPowerLimit() {
-        var units = getUnits();
-        var mchbar = readPCI32(0, 0, 0, 0x48);
-        mchbar = mchbar - mchbar % 4; // align to 4
+    static final class Units {
+        double power;
+        double energy;
+        double time;
+        PowerLimitCodec codec;
+    }
 
-        long l = read32(mchbar + 0x59A0);
-        long h = read32(mchbar + 0x59A0 + 4);
+    /**
+     * Either the cached value captured when the read is prepared, or the register to be parsed after the batch is executed.<br>
+     * The cache may be invalidated (or expire) between preparing and loading, so loading never looks at the cache again.
+     */
+    private static final class Prepared<T> {
+        final T cached;
+        final RegisterBatch.Value value;
 
-        long value = (h << 32) | l;
-        return formatPowerLimit(value, units);
+        Prepared(T cached, RegisterBatch.Value value) {
+            this.cached = cached;
+            this.value = value;
+        }
     }
 
-    @Override
-    public PowerLimit getPowerLimit() {
-        return getMSRPowerLimit();
+    private synchronized Prepared<Units> prepareUnits(RegisterBatch batch) {
+        checkCacheExpiry();
+        if (cachedUnits != null) {
+            return new Prepared<>(cachedUnits, null);
+        }
+        return new Prepared<>(null, batch.readMSR(0x606));
     }
 
-    public boolean updateMSRPowerLimit(Args args) {
-        var units = getUnits();
-        long value = readMSR(0x610);
-        long oldValue = value;
-        value = setPLValues(value, args, units);
-        if (oldValue == value) {
-            Utils.debug("msr not changed");
-            return false;
+    private synchronized Units loadUnits(Prepared<Units> prepared) {
+        if (prepared.cached != null) {
+            return prepared.cached;
         }
-        wrmsr(0x610, value);
-        return true;
+        var units = parseUnits(prepared.value.get());
+        if (cacheEnabled) {
+            cachedUnits = units;
+        }
+        return units;
     }
 
-    @SuppressWarnings("DuplicatedCode")
-    public boolean updateMMIOPowerLimit(Args args) {
-        var units = getUnits();
-        var mchbar = readPCI32(0, 0, 0, 0x48);
-        mchbar = mchbar - mchbar % 4; // align to 4
-
-        long l = read32(mchbar + 0x59A0);
-        long h = read32(mchbar + 0x59A0 + 4);
-
-        long value = (h << 32) | l;
-        long oldValue = value;
-        var oldPL = formatPowerLimit(value, units);
-        value = setPLValues(value, args, units);
-        var newPL = formatPowerLimit(value, units);
+    private synchronized Prepared<Long> prepareMCHBAR(RegisterBatch batch) {
+        checkCacheExpiry();
+        if (cachedMCHBAR != -1) {
+            return new Prepared<>(cachedMCHBAR, null);
+        }
+        return new Prepared<>(null, batch.readPCI32(0, 0, 0, 0x48));
+    }
 
-        if (value == oldValue) {
-            Utils.debug("mmio not changed");
-            return false;
+    private synchronized long loadMCHBAR(Prepared<Long> prepared) {
+        if (prepared.cached != null) {
+            return prepared.cached;
+        }
+        long mchbar = prepared.value.get();
+        mchbar = mchbar - mchbar % 4; // align to 4
+        if (cacheEnabled) {
+            cachedMCHBAR = mchbar;
         }
+        return mchbar;
+    }
 
-        if (newPL.pl1.power > oldPL.pl2.power) {
-            // need to apply pl2 first because pl1 exceeds old pl2
-            write32(mchbar + 0x59A0 + 4, (int) ((value >> 32) & 0xffffffffL));
-            write32(mchbar + 0x59A0, (int) (value & 0xffffffffL));
-        } else {
-            // apply pl1 first
-            write32(mchbar + 0x59A0, (int) (value & 0xffffffffL));
-            write32(mchbar + 0x59A0 + 4, (int) ((value >> 32) & 0xffffffffL));
+    private synchronized Prepared<Integer> prepareTjMax(RegisterBatch batch) {
+        checkCacheExpiry();
+        if (cachedTjMax != -1) {
+            return new Prepared<>(cachedTjMax, null);
         }
-        return true;
+        return new Prepared<>(null, batch.readMSR(0x1A2));
     }
 
-    @Override
-    public boolean updatePowerLimit(Args args) {
-        boolean msr = updateMSRPowerLimit(args);
-        boolean mmio = updateMMIOPowerLimit(args);
-        return msr || mmio;
+    private synchronized int loadTjMax(Prepared<Integer> prepared) {
+        if (prepared.cached != null) {
+            return prepared.cached;
+        }
+        // IA32_TEMPERATURE_TARGET [23:16] temperature target
+        int tjMax = (int) ((prepared.value.get() >> 16) & 0xff);
+        Utils.debug("tjmax: " + tjMax);
+        if (cacheEnabled) {
+            cachedTjMax = tjMax;
+        }
+        return tjMax;
     }
 
     @SuppressWarnings("PointlessBitwiseExpression")
-    private static PowerLimit formatPowerLimit(long value, Units units) {
-        int pl1 = (int) ((value >> 0) & 0b111111111111111);
-        int enable1 = (int) ((value >> 15) & 0b1);
-        int clamping1 = (int) ((value >> 16) & 0b1);
-        int time1 = (int) ((value >> 17) & 0b1111111);
-        int pl2 = (int) ((value >> 32) & 0b111111111111111);
-        int enable2 = (int) ((value >> 47) & 0b1);
-        int clamping2 = (int) ((value >> 48) & 0b1);
-        int time2 = (int) ((value >> 49) & 0b1111111);
+    static Units parseUnits(long value) {
+        int power = (int) ((value >> 0) & 0b1111); // [3:0]
+        int energy = (int) ((value >> 8) & 0b11111); // [12:8]
+        int time = (int) ((value >> 16) & 0b1111); // [19:16]
 
-        var ret = new PowerLimit();
+        var units = new Units();
+        units.codec = PowerLimitCodec.of(power, time);
+        units.power = units.codec.powerUnit;
+        units.energy = Math.pow(0.5, energy);
+        units.time = units.codec.timeUnit;
 
-        ret.locked = ((value >> 63) & 0b1) == 1;
+        Utils.debug("units: power = 1/2^" + power + ", energy = 1/2^" + energy + ", time = 1/2^" + time);
 
-        ret.pl1.power = pl1 * units.power;
-        ret.pl1.enabled = enable1 == 1;
-        ret.pl1.clamping = clamping1 == 1;
-        ret.pl1.time = formatTime(time1, units);
+        return units;
+    }
 
-        ret.pl2.power = pl2 * units.power;
-        ret.pl2.enabled = enable2 == 1;
-        ret.pl2.clamping = clamping2 == 1;
-        ret.pl2.time = formatTime(time2, units);
+    private long readMMIOValue(long mchbar) {
+        var batch = newBatch();
+        var l = batch.read32(mchbar + 0x59A0);
+        var h = batch.read32(mchbar + 0x59A0 + 4);
+        batch.execute();
+        return (h.get() << 32) | l.get();
+    }
 
-        return ret;
+    public PowerLimit getMSRPowerLimit() {
+        var batch = newBatch();
+        var units = prepareUnits(batch);
+        var value = batch.readMSR(0x610);
+        batch.execute();
+        return loadUnits(units).codec.decode(value.get());
     }
 
-    @SuppressWarnings("PointlessBitwiseExpression")
-    private static double formatTime(int time, Units units) {
-        int y = (time >> 0) & 0b11111;
-        int z = (time >> 5) & 0b11;
+    public PowerLimit getMMIOPowerLimit() {
+        var batch = newBatch();
+        var units = prepareUnits(batch);
+        var mchbar = prepareMCHBAR(batch);
+        batch.execute();
 
-        return Math.pow(2, y) * (1.0 + z / 4.0) * units.time;
+        long value = readMMIOValue(loadMCHBAR(mchbar));
+        return loadUnits(units).codec.decode(value);
     }
 
-    private static String formatBDF(int bdf) {
-        String s = Utils.toHexString(bdf);
-        if (s.length() == 1) {
-            s = "0" + s;
-        }
-        return "0x" + s;
+    @Override
+    public PowerLimit getPowerLimit() {
+        return getMSRPowerLimit();
     }
 
-    private static String formatLoc(int loc) {
-        String s = Utils.toHexString(loc);
-        if (s.length() == 1) {
-            s = "00" + s;
-        } else if (s.length() == 2) {
-            s = "0" + s;
-        }
-        return "0x" + s;
+    @Override
+    public EnergyCounter readEnergyCounter() {
+        var batch = newBatch();
+        var units = prepareUnits(batch);
+        var value = batch.readMSR(0x611);
+        batch.execute();
+        // [31:0] total energy consumed
+        return new EnergyCounter(value.get() & 0xffffffffL, loadUnits(units).energy, 1L << 32);
     }
 
-    private static String format32bitLoc(long loc) {
-        String hex = Long.toHexString(loc).toUpperCase();
-        if (hex.length() < 8) {
-            hex = "0".repeat(8 - hex.length()) + hex;
-        }
-        return "0x" + hex;
+    @Override
+    public boolean supportsThermal() {
+        return true; // IA32_PACKAGE_THERM_STATUS is available on all supported cpus
     }
 
-    @SuppressWarnings("ConstantConditions")
-    private long setPLValues(long value, Args args, Units units) {
-        if (args.pl1 != null) {
-            long v = (int) (args.pl1 / units.power);
-            long mask = 0b111111111111111;
-            v = v & mask;
-            value = (value & ~mask) | v;
-        }
-        if (args.pl2 != null) {
-            long v = (long) (args.pl2 / units.power);
-            v = v << 32;
-            long mask = 0b111111111111111L << 32;
-            v = v & mask;
-            value = (value & ~mask) | v;
-        }
-        if (args.enable2 != null) {
-            long v = args.enable2 ? 1 : 0;
-            v = v << 47;
-            long mask = 1L << 47;
-            v = v & mask;
-            value = (value & ~mask) | v;
-        }
-        if (args.clamping1 != null) {
-            long v = args.clamping1 ? 1 : 0;
-            v = v << 16;
-            long mask = 1L << 16;
-            v = v & mask;
-            value = (value & ~mask) | v;
-        }
-        if (args.clamping2 != null) {
-            long v = args.clamping2 ? 1 : 0;
-            v = v << 48;
-            long mask = 1L << 48;
-            v = v & mask;
-            value = (value & ~mask) | v;
-        }
-        if (args.time1 != null) {
-            double t = args.time1 / units.time;
-            int y = 0;
-            int z = 0;
-            double delta = Double.MAX_VALUE;
-            for (int yi = 0; yi < TIME_Y_TOTAL; ++yi) {
-                for (int zi = 0; zi < TIME_Z_TOTAL; ++zi) {
-                    double d = Math.abs(timeTableYZ[yi][zi] - t);
-                    if (delta > d) {
-                        delta = d;
-                        y = yi;
-                        z = zi;
-                    }
-                }
-            }
-            int res = ((z & 0b11) << 5) | (y & 0b11111);
-            Utils.debug("time = " + args.time1 + ", tu = " + units.time + ", t = " + t + ", y = " + y + " z = " + z + ", res = " + Integer.toBinaryString(res));
-
-            long v = res;
-            v = v << 17;
-            long mask = 0b1111111 << 17;
-            v = v & mask;
-            value = (value & ~mask) | v;
-        }
-        return value;
+    @Override
+    public double readPackageTemperature() {
+        var batch = newBatch();
+        var tjMax = prepareTjMax(batch);
+        var value = batch.readMSR(0x1B1);
+        batch.execute();
+        // IA32_PACKAGE_THERM_STATUS [22:16] digital readout, degrees below tjmax
+        return loadTjMax(tjMax) - (int) ((value.get() >> 16) & 0x7f);
     }
 
-    @SuppressWarnings("DuplicatedCode")
-    private long readMSR(int loc) {
-        String location = formatLoc(loc);
-        String result = exec("RDMSR", location);
-        String expectedPrefix = "Read MSR " + location + ": High 32bit(EDX) = ";
-
-        String baseErr = "unexpected output for rdmsr " + location;
-
-        if (!result.startsWith(expectedPrefix)) {
-            throw new EX(baseErr + ": " + result);
-        }
-        String x = result.substring(expectedPrefix.length());
-        if (!x.contains(",")) {
-            throw new EX(baseErr + ": " + result);
-        }
-        String highStr = x.substring(0, x.indexOf(","));
-        if (!highStr.startsWith("0x")) {
-            throw new EX(baseErr + ": " + highStr + " is not valid hex");
-        }
-        long high;
-        try {
-            high = Long.parseLong(highStr.substring("0x".length()), 16);
-        } catch (NumberFormatException e) {
-            throw new EX(baseErr + ": " + highStr + " is not valid hex");
-        }
-
-        x = x.substring(x.indexOf(","));
-        expectedPrefix = ", Low 32bit(EAX) = ";
-        if (!x.startsWith(expectedPrefix)) {
-            throw new EX(baseErr + ": " + result);
-        }
-        x = x.substring(expectedPrefix.length());
-        String lowStr = x;
-        if (x.contains("\n")) {
-            lowStr = x.substring(0, x.indexOf("\n")).trim(); // trim the \r if exists
-        }
-        if (!lowStr.startsWith("0x")) {
-            throw new EX(baseErr + ": " + lowStr + " is not valid hex");
-        }
-        long low;
-        try {
-            low = Long.parseLong(lowStr.substring("0x".length()), 16);
-        } catch (NumberFormatException e) {
-            throw new EX(baseErr + ": " + lowStr + " is not valid hex");
-        }
-
-        return high << 32 | low;
+    public boolean updateMSRPowerLimit(Args args) {
+        return transaction(args, true, false).isModified();
     }
 
-    private void wrmsr(int loc, long value) {
-        String location = formatLoc(loc);
-        String high = format32bitLoc((value >> 32) & 0xffffffffL);
-        String low = format32bitLoc((value) & 0xffffffffL);
-        String result = exec("WRMSR", location, high, low, "0");
-        String expectedPrefix = "Write MSR " + location + ": High 32bit(EDX) = " + high + ", Low 32bit(EAX) = " + low;
-
-        String baseErr = "unexpected output for wrmsr " + location + " " + high + " " + low + " 0";
-
-        if (!result.startsWith(expectedPrefix)) {
-            throw new EX(baseErr + ": " + result);
-        }
+    public boolean updateMMIOPowerLimit(Args args) {
+        return transaction(args, false, true).isModified();
     }
 
-    @SuppressWarnings({"DuplicatedCode", "SameParameterValue"})
-    private long readPCI32(int b, int d, int f, int loc) {
-        String bus = formatBDF(b);
-        String device = formatBDF(d);
-        String function = formatBDF(f);
-        String location = formatLoc(loc);
-        String result = exec("RPCI32", bus, device, function, location);
-        String expectedPrefix = "Read PCI Bus/Dev/Fun/Offset " + bus + "/" + device + "/" + function + "/" + location + " = ";
+    @Override
+    public boolean updatePowerLimit(Args args) {
+        return transaction(args).isModified();
+    }
 
-        String baseErr = "unexpected output for rpci32 " + bus + " " + device + " " + function + " " + location;
+    /**
+     * Update both the msr and the mmio copies.
+     */
+    public UpdateResult transaction(Args args) {
+        return transaction(args, true, true);
+    }
 
-        if (!result.startsWith(expectedPrefix)) {
-            throw new EX(baseErr + ": " + result);
+    /**
+     * Read the selected copies once, compute one target image, write only what differs,
+     * and read back the written copies in the same batch.<br>
+     * The target image is computed from the msr copy if it's selected, otherwise from the mmio copy.
+     * Each copy keeps its own lock bit.
+     */
+    public UpdateResult transaction(Args args, boolean msr, boolean mmio) {
+        var result = new UpdateResult();
+        if (!msr && !mmio) {
+            return result;
+        }
+
+        var batch = newBatch();
+        var unitsPrepared = prepareUnits(batch);
+        RegisterBatch.Value msrValue = null;
+        if (msr) {
+            msrValue = batch.readMSR(0x610);
+        }
+        Prepared<Long> mchbarPrepared = null;
+        long mchbar = -1;
+        RegisterBatch.Value mmioLow = null;
+        RegisterBatch.Value mmioHigh = null;
+        if (mmio) {
+            mchbarPrepared = prepareMCHBAR(batch);
+            if (mchbarPrepared.cached != null) {
+                // mchbar is cached, so mmio can be read in the same batch
+                mchbar = mchbarPrepared.cached;
+                mmioLow = batch.read32(mchbar + 0x59A0);
+                mmioHigh = batch.read32(mchbar + 0x59A0 + 4);
+            }
         }
-        String str = result.substring(expectedPrefix.length()).trim(); // trim newline
-        if (!str.startsWith("0x")) {
-            throw new EX(baseErr + ": " + str + " is not valid hex");
+        batch.execute();
+
+        var units = loadUnits(unitsPrepared);
+        if (mmio && mmioLow == null) {
+            mchbar = loadMCHBAR(mchbarPrepared);
+            batch = newBatch();
+            mmioLow = batch.read32(mchbar + 0x59A0);
+            mmioHigh = batch.read32(mchbar + 0x59A0 + 4);
+            batch.execute();
+        }
+        long msrCurrent = msr ? msrValue.get() : 0;
+        long mmioCurrent = mmio ? (mmioHigh.get() << 32) | mmioLow.get() : 0;
+
+        long target = units.codec.encode(msr ? msrCurrent : mmioCurrent, args, powerTolerance, timeTolerance);
+
+        batch = newBatch();
+        long msrWant = 0;
+        RegisterBatch.Value msrReadback = null;
+        if (msr) {
+            msrWant = withLockBit(target, msrCurrent);
+            if (msrWant == msrCurrent) {
+                result.msr = UpdateResult.Outcome.unchanged;
+            } else if (isLocked(msrCurrent)) {
+                result.msr = UpdateResult.Outcome.rejected;
+            } else {
+                batch.writeMSR(0x610, msrWant);
+                msrReadback = batch.readMSR(0x610);
+            }
         }
-        long res;
-        try {
-            res = Long.parseLong(str.substring("0x".length()), 16);
-        } catch (NumberFormatException e) {
-            throw new EX(baseErr + ": " + str + " is not valid hex");
+        long mmioWant = 0;
+        RegisterBatch.Value mmioLowReadback = null;
+        RegisterBatch.Value mmioHighReadback = null;
+        if (mmio) {
+            mmioWant = withLockBit(target, mmioCurrent);
+            if (mmioWant == mmioCurrent) {
+                result.mmio = UpdateResult.Outcome.unchanged;
+            } else if (isLocked(mmioCurrent)) {
+                result.mmio = UpdateResult.Outcome.rejected;
+            } else {
+                writeMMIO(batch, mchbar, mmioCurrent, mmioWant);
+                mmioLowReadback = batch.read32(mchbar + 0x59A0);
+                mmioHighReadback = batch.read32(mchbar + 0x59A0 + 4);
+            }
         }
-        return res;
-    }
-
-    @SuppressWarnings("DuplicatedCode")
-    private int read32(long loc) {
-        String location = format32bitLoc(loc);
-        String result = exec("R32", location);
-        String expectedPrefix = "Read Memory Address " + location + " = ";
-
-        String baseErr = "unexpected output for r32 " + location;
+        batch.execute();
 
-        if (!result.startsWith(expectedPrefix)) {
-            throw new EX(baseErr + ": " + result);
+        if (msrReadback != null) {
+            result.msr = msrReadback.get() == msrWant ? UpdateResult.Outcome.applied : UpdateResult.Outcome.overridden;
         }
-        String str = result.substring(expectedPrefix.length()).trim(); // trim newline
-        if (!str.startsWith("0x")) {
-            throw new EX(baseErr + ": " + str + " is not valid hex");
+        long mmioFinal = mmioCurrent;
+        if (mmioLowReadback != null) {
+            long readback = (mmioHighReadback.get() << 32) | mmioLowReadback.get();
+            result.mmio = readback == mmioWant ? UpdateResult.Outcome.applied : UpdateResult.Outcome.overridden;
+            mmioFinal = readback;
         }
-        int res;
-        try {
-            res = (int) Long.parseLong(str.substring("0x".length()), 16);
-        } catch (NumberFormatException e) {
-            throw new EX(baseErr + ": " + str + " is not valid hex");
+        if (msr) {
+            result.powerLimit = units.codec.decode(msrReadback != null ? msrReadback.get() : msrCurrent);
+        } else {
+            result.powerLimit = units.codec.decode(mmioFinal);
         }
-        return res;
+        Utils.debug("power limit transaction: " + result);
+        return result;
     }
 
-    private void write32(long loc, int v) {
-        String location = format32bitLoc(loc);
-        String value = format32bitLoc(v);
-        String result = exec("W32", location, value);
-        String expectedRes = "Write Memory Address " + location + " = " + value;
+    private static boolean isLocked(long value) {
+        return (value >>> 63) == 1;
+    }
 
-        String baseErr = "unexpected output for w32 " + location + " " + value;
+    private static long withLockBit(long value, long lockSource) {
+        return (value & ~(1L << 63)) | (lockSource & (1L << 63));
+    }
 
-        if (!result.trim().equals(expectedRes)) {
-            throw new EX(baseErr + ": " + result);
+    /**
+     * Only the changed halves are written.
+     */
+    private static void writeMMIO(RegisterBatch batch, long mchbar, long oldValue, long value) {
+        boolean lowChanged = (int) value != (int) oldValue;
+        boolean highChanged = (int) (value >> 32) != (int) (oldValue >> 32);
+        if (lowChanged && highChanged
+            && (value & PowerLimitCodec.POWER_MASK) > ((oldValue >> 32) & PowerLimitCodec.POWER_MASK)) {
+            // need to apply pl2 first because pl1 exceeds old pl2
+            batch.write32(mchbar + 0x59A0 + 4, (int) (value >> 32));
+            batch.write32(mchbar + 0x59A0, (int) value);
+            return;
+        }
+        if (lowChanged) {
+            batch.write32(mchbar + 0x59A0, (int) value);
+        }
+        if (highChanged) {
+            batch.write32(mchbar + 0x59A0 + 4, (int) (value >> 32));
         }
     }
 }
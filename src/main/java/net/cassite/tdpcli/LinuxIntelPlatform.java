@@ -0,0 +1,36 @@
+package net.cassite.tdpcli;
+
+/**
+ * Intel platform on linux, registers are accessed via device files without spawning processes.<br>
+ * The mmio copy of the power limit is only supported when the access is configured with
+ * pci config space and physical memory.
+ */
+public class LinuxIntelPlatform extends IntelPlatform {
+    private final boolean supportsMMIO;
+
+    public LinuxIntelPlatform(LinuxRegisterAccess access) {
+        super(() -> new DirectBatch(access));
+        this.supportsMMIO = access.supportsMMIO();
+    }
+
+    @Override
+    public PowerLimit getMMIOPowerLimit() {
+        if (!supportsMMIO) {
+            throw new EX("mmio is not supported");
+        }
+        return super.getMMIOPowerLimit();
+    }
+
+    @Override
+    public UpdateResult transaction(Args args) {
+        return transaction(args, true, supportsMMIO);
+    }
+
+    @Override
+    public UpdateResult transaction(Args args, boolean msr, boolean mmio) {
+        if (mmio && !supportsMMIO) {
+            throw new EX("mmio is not supported");
+        }
+        return super.transaction(args, msr, mmio);
+    }
+}
@@ -0,0 +1,162 @@
+package net.cassite.tdpcli;
+
+import net.cassite.tdpcli.util.Utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Access msr via the linux msr driver: /dev/cpu/N/msr.<br>
+ * The msr index is used as the file offset, and each register is read or written as 8 bytes.
+ * The channel is opened on first use and kept open until {@link #close()}.<br>
+ * Optionally, pci config space is read from /sys/bus/pci/devices/DDDD:BB:DD.F/config,
+ * and physical memory is accessed via {@link PhysicalMemory}.
+ */
+public class LinuxRegisterAccess implements RegisterAccess, Closeable {
+    private final Path msrPath;
+    private final Path pciRoot;
+    private final PhysicalMemory mem;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(8).order(ByteOrder.LITTLE_ENDIAN);
+    private final Map<Path, FileChannel> pciConfigs = new HashMap<>();
+    private FileChannel msr;
+
+    public LinuxRegisterAccess(Path msrPath) {
+        this(msrPath, null, null);
+    }
+
+    /**
+     * @param pciRoot the directory of pci devices, null if pci config space is not accessible
+     * @param memPath the physical memory device, null if physical memory is not accessible
+     */
+    public LinuxRegisterAccess(Path msrPath, Path pciRoot, Path memPath) {
+        this.msrPath = msrPath;
+        this.pciRoot = pciRoot;
+        this.mem = memPath == null ? null : new PhysicalMemory(memPath);
+    }
+
+    public boolean supportsMMIO() {
+        return pciRoot != null && mem != null;
+    }
+
+    private FileChannel msr() {
+        if (msr == null) {
+            try {
+                msr = FileChannel.open(msrPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } catch (IOException e) {
+                throw new EX("failed to open " + msrPath + ", make sure the msr module is loaded and you have the permission", e);
+            }
+            Utils.debug("opened " + msrPath);
+        }
+        return msr;
+    }
+
+    @Override
+    public synchronized long readMSR(int loc) {
+        var ch = msr();
+        buf.clear();
+        try {
+            while (buf.hasRemaining()) {
+                int n = ch.read(buf, loc + buf.position());
+                if (n == -1) {
+                    throw new EX("failed to read msr " + Utils.toHexString(loc) + " from " + msrPath + ": eof");
+                }
+            }
+        } catch (IOException e) {
+            throw new EX("failed to read msr " + Utils.toHexString(loc) + " from " + msrPath, e);
+        }
+        long value = buf.getLong(0);
+        Utils.debug("rdmsr " + Utils.toHexString(loc) + " = " + Long.toHexString(value));
+        return value;
+    }
+
+    @Override
+    public synchronized void writeMSR(int loc, long value) {
+        var ch = msr();
+        buf.clear();
+        buf.putLong(0, value);
+        try {
+            while (buf.hasRemaining()) {
+                ch.write(buf, loc + buf.position());
+            }
+        } catch (IOException e) {
+            throw new EX("failed to write msr " + Utils.toHexString(loc) + " to " + msrPath, e);
+        }
+        Utils.debug("wrmsr " + Utils.toHexString(loc) + " = " + Long.toHexString(value));
+    }
+
+    @Override
+    public synchronized long readPCI32(int b, int d, int f, int loc) {
+        if (pciRoot == null) {
+            throw new EX("reading pci config space is not supported");
+        }
+        var path = pciRoot.resolve(String.format("0000:%02x:%02x.%x", b, d, f)).resolve("config");
+        var ch = pciConfigs.get(path);
+        if (ch == null) {
+            try {
+                ch = FileChannel.open(path, StandardOpenOption.READ);
+            } catch (IOException e) {
+                throw new EX("failed to open " + path, e);
+            }
+            pciConfigs.put(path, ch);
+        }
+        buf.clear().limit(4);
+        try {
+            while (buf.hasRemaining()) {
+                int n = ch.read(buf, loc + buf.position());
+                if (n == -1) {
+                    throw new EX("failed to read " + Utils.toHexString(loc) + " from " + path + ": eof");
+                }
+            }
+        } catch (IOException e) {
+            throw new EX("failed to read " + Utils.toHexString(loc) + " from " + path, e);
+        }
+        return buf.getInt(0) & 0xffffffffL;
+    }
+
+    @Override
+    public int read32(long loc) {
+        if (mem == null) {
+            throw new EX("reading physical memory is not supported");
+        }
+        return mem.read32(loc);
+    }
+
+    @Override
+    public void write32(long loc, int value) {
+        if (mem == null) {
+            throw new EX("writing physical memory is not supported");
+        }
+        mem.write32(loc, value);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (mem != null) {
+            mem.close();
+        }
+        for (var entry : pciConfigs.entrySet()) {
+            try {
+                entry.getValue().close();
+            } catch (IOException e) {
+                Utils.warn("failed to close " + entry.getKey() + ": " + e);
+            }
+        }
+        pciConfigs.clear();
+        if (msr == null) {
+            return;
+        }
+        try {
+            msr.close();
+        } catch (IOException e) {
+            Utils.warn("failed to close " + msrPath + ": " + e);
+        }
+        msr = null;
+    }
+}
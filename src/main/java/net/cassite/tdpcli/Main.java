@@ -4,13 +4,17 @@ import io.vproxy.dep.vjson.JSON;
 import io.vproxy.vfd.IPPort;
 import net.cassite.tdpcli.daemon.Config;
 import net.cassite.tdpcli.daemon.Daemon;
+import net.cassite.tdpcli.daemon.DaemonClient;
+import net.cassite.tdpcli.daemon.StateStore;
+import net.cassite.tdpcli.daemon.UnixSocketRelay;
 import net.cassite.tdpcli.util.PrintFormat;
 import net.cassite.tdpcli.util.Utils;
-import oshi.SystemInfo;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import static net.cassite.tdpcli.Consts.amdArch;
 import static net.cassite.tdpcli.Consts.intelArch;
@@ -18,8 +22,18 @@ import static net.cassite.tdpcli.Consts.intelArch;
 public class Main {
     private static final String TDPCLI_RW_EVERYTHING_PATH = "TDPCLI_RW_EVERYTHING_PATH";
     private static final String TDPCLI_RYZENADJ_PATH = "TDPCLI_RYZENADJ_PATH";
+    private static final String TDPCLI_LINUX_MSR_PATH = "TDPCLI_LINUX_MSR_PATH";
+    private static final String TDPCLI_LINUX_CPU_PATH = "TDPCLI_LINUX_CPU_PATH";
+    private static final String TDPCLI_LINUX_PCI_PATH = "TDPCLI_LINUX_PCI_PATH";
+    private static final String TDPCLI_LINUX_MEM_PATH = "TDPCLI_LINUX_MEM_PATH";
+    private static final String TDPCLI_POWERCAP_PATH = "TDPCLI_POWERCAP_PATH";
+    private static final String TDPCLI_THERMAL_PATH = "TDPCLI_THERMAL_PATH";
+    private static final String TDPCLI_SOCKET_PATH = "TDPCLI_SOCKET_PATH";
     private static final String DEFAULT_RW_PATH = "C:\\Program Files\\RW-Everything\\RW.exe";
     private static final String DEFAULT_RYZENADJ_PATH = "";
+    private static final String DEFAULT_LINUX_MSR_PATH_FORMAT = "/dev/cpu/%d/msr";
+    private static final String DEFAULT_LINUX_PCI_PATH = "/sys/bus/pci/devices";
+    private static final String DEFAULT_LINUX_MEM_PATH = "/dev/mem";
 
     public static void main(String[] args) {
         Args a = new Args();
@@ -44,9 +58,7 @@ public class Main {
             return;
         }
 
-        var si = new SystemInfo();
-        var hal = si.getHardware();
-        var microArch = hal.getProcessor().getProcessorIdentifier().getMicroarchitecture();
+        var microArch = MicroArchitecture.detect();
         if (!intelArch.contains(microArch) && !amdArch.contains(microArch)) {
             if (!a.forceIntel && !a.forceAmd) {
                 Utils.error("Unregistered micro architecture `" + microArch + "`, this program might not work on this platform");
@@ -84,8 +96,53 @@ public class Main {
             }
         }
 
+        if (a.powercap) {
+            if (!isLinux()) {
+                Utils.error("--powercap is only supported on linux");
+                System.exit(1);
+                return;
+            }
+            if (a.intelMsr || a.intelMmio) {
+                Utils.error("cannot specify --msr or --mmio with --powercap");
+                System.exit(1);
+                return;
+            }
+        }
+
+        if (!a.isModify() && a.intelMsr && a.intelMmio) {
+            Utils.error("cannot specify --msr and --mmio at the same time when retrieving info");
+            System.exit(1);
+            return;
+        }
+
+        if (!a.daemon && !a.noDaemon) {
+            boolean handled;
+            try {
+                handled = delegateToDaemon(a);
+            } catch (EX e) {
+                Utils.error(e.getMessage());
+                System.exit(1);
+                return;
+            }
+            if (handled) {
+                return;
+            }
+        }
+
         Platform platform;
-        if (a.forceIntel) {
+        if (a.powercap) {
+            String path = System.getenv(TDPCLI_POWERCAP_PATH);
+            if (path == null) {
+                path = PowercapPlatform.DEFAULT_ROOT;
+            }
+            String thermalPath = System.getenv(TDPCLI_THERMAL_PATH);
+            if (thermalPath == null) {
+                thermalPath = PackageThermal.DEFAULT_ROOT;
+            }
+            platform = new PowercapPlatform(Path.of(path), Path.of(thermalPath));
+        } else if (a.forceIntel && isLinux()) {
+            platform = createLinuxIntelPlatform();
+        } else if (a.forceIntel) {
             String path = System.getenv(TDPCLI_RW_EVERYTHING_PATH);
             if (path == null) {
                 path = DEFAULT_RW_PATH;
@@ -103,6 +160,10 @@ public class Main {
             return;
         }
 
+        if (a.noCache && platform instanceof IntelPlatform) {
+            ((IntelPlatform) platform).setCacheEnabled(false);
+        }
+
         if (a.daemon) {
             String err = a.validateForDaemon();
             if (err != null) {
@@ -127,33 +188,36 @@ public class Main {
             } else {
                 config = new Config();
             }
-            var daemon = new Daemon(ipport, platform, config);
+            StateStore stateStore = null;
+            Args desired = a.isModify() ? a : null;
+            if (!config.statePath.isEmpty()) {
+                stateStore = new StateStore(Path.of(config.statePath));
+                desired = restoreState(stateStore, config, a);
+            }
+            boolean applied = false;
+            UpdateResult result = null;
+            if (desired != null) {
+                // apply once before the http server binds, the daemon keeps enforcing it afterwards
+                try {
+                    result = updatePowerLimit(platform, desired);
+                    applied = true;
+                } catch (RuntimeException e) {
+                    Utils.error("failed to apply the desired power limit on start: " + e);
+                }
+            }
+            var daemon = new Daemon(ipport, platform, config, stateStore);
             daemon.start();
-            if (a.isModify()) {
-                daemon.setArgs(a);
+            if (applied) {
+                daemon.seedArgs(desired, result);
+            } else if (desired != null) {
+                daemon.setArgs(desired); // retried by the daemon
             }
             return;
         }
 
         if (a.isModify()) {
-            if (a.intelMsr) {
-                //noinspection ConstantConditions
-                ((IntelPlatform) platform).updateMSRPowerLimit(a);
-            }
-            if (a.intelMmio) {
-                //noinspection ConstantConditions
-                ((IntelPlatform) platform).updateMMIOPowerLimit(a);
-            }
-            if (!a.intelMsr && !a.intelMmio) {
-                platform.updatePowerLimit(a);
-            }
+            updatePowerLimit(platform, a);
         } else {
-            if (a.intelMsr && a.intelMmio) {
-                Utils.error("cannot specify --msr and --mmio at the same time when retrieving info");
-                System.exit(1);
-                return;
-            }
-
             PowerLimit pl;
             if (a.intelMsr) {
                 //noinspection ConstantConditions
@@ -164,14 +228,157 @@ public class Main {
             } else {
                 pl = platform.getPowerLimit();
             }
+            printPowerLimit(a, pl);
+        }
+    }
+
+    private static void printPowerLimit(Args a, PowerLimit pl) {
+        if (a.printFormat == PrintFormat.table) {
+            System.out.println(pl.formatToTable());
+        } else if (a.printFormat == PrintFormat.json) {
+            System.out.println(pl.formatToJson().pretty());
+        } else {
+            System.out.println(pl.formatToTable());
+        }
+    }
+
+    /**
+     * Send the read or write to a running daemon, so it's served from the daemon's cache
+     * and does not race with the daemon's enforcement.
+     *
+     * The options must be validated before calling this method.
+     *
+     * @return false if no daemon is running or the request cannot be expressed with the daemon api
+     */
+    private static boolean delegateToDaemon(Args a) {
+        if (a.powercap) {
+            return false; // the daemon does not report its backend, which may not be powercap
+        }
+        if (a.isModify() && (a.intelMsr || a.intelMmio)) {
+            return false; // the daemon always writes all copies it supports
+        }
+        String path = System.getenv(TDPCLI_SOCKET_PATH);
+        if (path == null) {
+            path = UnixSocketRelay.DEFAULT_PATH;
+        }
+        var client = new DaemonClient(Path.of(path));
+        if (a.isModify()) {
+            if (!client.setPowerLimit(a)) {
+                return false;
+            }
+            Utils.debug("power limit is updated via the daemon: " + a.plFieldsToString());
+            return true;
+        }
+        var pl = client.getPowerLimit(a.intelMsr ? "msr" : (a.intelMmio ? "mmio" : null));
+        if (pl == null) {
+            return false;
+        }
+        printPowerLimit(a, pl);
+        return true;
+    }
 
-            if (a.printFormat == PrintFormat.table) {
-                System.out.println(pl.formatToTable());
-            } else if (a.printFormat == PrintFormat.json) {
-                System.out.println(pl.formatToJson().pretty());
+    /**
+     * @return the result of the transaction, null if the platform is not intel
+     */
+    private static UpdateResult updatePowerLimit(Platform platform, Args a) {
+        if (platform instanceof IntelPlatform) {
+            UpdateResult result;
+            if (a.intelMsr || a.intelMmio) {
+                result = ((IntelPlatform) platform).transaction(a, a.intelMsr, a.intelMmio);
             } else {
-                System.out.println(pl.formatToTable());
+                result = ((IntelPlatform) platform).transaction(a);
+            }
+            if (result.isFailed()) {
+                Utils.warn("power limit is not fully applied: msr " + result.msr + ", mmio " + result.mmio);
             }
+            return result;
+        } else {
+            platform.updatePowerLimit(a);
+            return null;
         }
     }
+
+    /**
+     * Apply the saved config, and merge the power limit options on the command line into the saved power limit.
+     *
+     * @return the desired power limit, or null if nothing is desired
+     */
+    private static Args restoreState(StateStore store, Config config, Args a) {
+        StateStore.State state;
+        try {
+            state = store.load();
+        } catch (EX e) {
+            Utils.error("failed to load the saved state, it's ignored: " + e.getMessage());
+            state = null;
+        }
+        var desired = new Args();
+        if (state != null) {
+            if (state.config != null) {
+                for (var diff : state.config.differences(config)) {
+                    Utils.warn("config " + diff + ", the value set via the api overrides the config file");
+                }
+                String err = state.config.checkAndAssignToConfig(config);
+                if (err != null) {
+                    Utils.warn("the saved config is not fully restored: " + err);
+                }
+            }
+            if (state.args != null) {
+                String err = state.args.checkAndAssignToArgs(desired);
+                if (err != null) {
+                    Utils.warn("the saved power limit is ignored: " + err);
+                    desired = new Args();
+                }
+            }
+            Utils.info("restored saved state: " + desired.plFieldsToString());
+        }
+        desired.from(a);
+        return desired.isModify() ? desired : null;
+    }
+
+    private static IntelPlatform createLinuxIntelPlatform() {
+        String pciPath = System.getenv(TDPCLI_LINUX_PCI_PATH);
+        if (pciPath == null) {
+            pciPath = DEFAULT_LINUX_PCI_PATH;
+        }
+        String memPath = System.getenv(TDPCLI_LINUX_MEM_PATH);
+        if (memPath == null) {
+            memPath = DEFAULT_LINUX_MEM_PATH;
+        }
+        String path = System.getenv(TDPCLI_LINUX_MSR_PATH);
+        if (path != null) {
+            return new LinuxIntelPlatform(new LinuxRegisterAccess(Path.of(path), Path.of(pciPath), Path.of(memPath)));
+        }
+
+        String cpuPath = System.getenv(TDPCLI_LINUX_CPU_PATH);
+        if (cpuPath == null) {
+            cpuPath = PackageTopology.DEFAULT_ROOT;
+        }
+        Map<Integer, Integer> topology;
+        try {
+            topology = PackageTopology.discover(Path.of(cpuPath));
+        } catch (EX e) {
+            Utils.warn("failed to discover cpu packages, only cpu 0 is used: " + e.getMessage());
+            topology = Map.of(0, 0);
+        }
+        // mchbar belongs to the first package
+        var packages = new LinkedHashMap<Integer, IntelPlatform>();
+        for (var e : topology.entrySet()) {
+            var msrPath = Path.of(String.format(DEFAULT_LINUX_MSR_PATH_FORMAT, e.getValue()));
+            LinuxRegisterAccess access;
+            if (packages.isEmpty()) {
+                access = new LinuxRegisterAccess(msrPath, Path.of(pciPath), Path.of(memPath));
+            } else {
+                access = new LinuxRegisterAccess(msrPath);
+            }
+            packages.put(e.getKey(), new LinuxIntelPlatform(access));
+        }
+        if (packages.size() == 1) {
+            return packages.values().iterator().next();
+        }
+        return new MultiPackageIntelPlatform(packages);
+    }
+
+    private static boolean isLinux() {
+        return System.getProperty("os.name").toLowerCase().contains("linux");
+    }
 }
@@ -0,0 +1,139 @@
+package net.cassite.tdpcli;
+
+import net.cassite.tdpcli.util.Utils;
+import oshi.SystemInfo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+
+/**
+ * Detects the cpu micro architecture without initializing oshi when possible.<br>
+ * On linux, vendor, family and model of the first cpu are read from /proc/cpuinfo
+ * and looked up in a built-in table. Otherwise oshi is used, and on linux its result is cached
+ * in a per-user file keyed by the boot id, so it's computed at most once per boot.
+ */
+public class MicroArchitecture {
+    public static final String CPUINFO = "/proc/cpuinfo";
+    public static final String BOOT_ID = "/proc/sys/kernel/random/boot_id";
+    public static final String CACHE_FILE = System.getProperty("user.home") + "/.tdpcli/arch-cache";
+
+    // vendor:family:model, the family and model are displayed values in decimal
+    private static final Map<String, String> table = Map.of(
+        "GenuineIntel:6:151", "Alder Lake", // 0x97
+        "GenuineIntel:6:154", "Alder Lake", // 0x9A
+        "GenuineIntel:6:183", "Raptor Lake", // 0xB7
+        "GenuineIntel:6:186", "Raptor Lake", // 0xBA
+        "GenuineIntel:6:191", "Raptor Lake" // 0xBF
+    );
+
+    private MicroArchitecture() {
+    }
+
+    public static String detect() {
+        if (!System.getProperty("os.name").toLowerCase().contains("linux")) {
+            return detectWithOshi();
+        }
+        String key = readCpuinfoKey(Path.of(CPUINFO));
+        if (key != null) {
+            var arch = table.get(key);
+            if (arch != null) {
+                Utils.debug("micro architecture of " + key + " is " + arch);
+                return arch;
+            }
+        }
+        String bootId = readBootId();
+        var cache = Path.of(CACHE_FILE);
+        if (bootId != null) {
+            var arch = readCache(cache, bootId);
+            if (arch != null) {
+                Utils.debug("micro architecture is cached: " + arch);
+                return arch;
+            }
+        }
+        var arch = detectWithOshi();
+        if (bootId != null) {
+            writeCache(cache, bootId, arch);
+        }
+        return arch;
+    }
+
+    private static String detectWithOshi() {
+        return new SystemInfo().getHardware().getProcessor().getProcessorIdentifier().getMicroarchitecture();
+    }
+
+    /**
+     * @return vendor:family:model of the first cpu, or null if not found
+     */
+    static String readCpuinfoKey(Path path) {
+        String vendor = null;
+        String family = null;
+        String model = null;
+        try (BufferedReader r = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            // only the first processor block is needed
+            while ((line = r.readLine()) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon < 0) {
+                    continue;
+                }
+                var name = line.substring(0, colon).trim();
+                var value = line.substring(colon + 1).trim();
+                switch (name) {
+                    case "vendor_id" -> vendor = value;
+                    case "cpu family" -> family = value;
+                    case "model" -> model = value;
+                }
+            }
+        } catch (IOException e) {
+            Utils.debug("failed to read " + path + ": " + e);
+            return null;
+        }
+        if (vendor == null || family == null || model == null) {
+            return null;
+        }
+        return vendor + ":" + family + ":" + model;
+    }
+
+    private static String readBootId() {
+        try {
+            return Files.readString(Path.of(BOOT_ID)).trim();
+        } catch (IOException e) {
+            Utils.debug("failed to read " + BOOT_ID + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * The cache file contains two lines: the boot id and the micro architecture.
+     */
+    private static String readCache(Path cache, String bootId) {
+        try {
+            var lines = Files.readAllLines(cache, StandardCharsets.UTF_8);
+            if (lines.size() >= 2 && lines.get(0).equals(bootId)) {
+                return lines.get(1);
+            }
+        } catch (IOException ignore) {
+        }
+        return null;
+    }
+
+    private static void writeCache(Path cache, String bootId, String arch) {
+        var tmp = cache.resolveSibling(cache.getFileName() + "." + ProcessHandle.current().pid() + ".tmp");
+        try {
+            Files.createDirectories(cache.getParent());
+            Files.writeString(tmp, bootId + "\n" + arch + "\n");
+            Files.move(tmp, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Utils.debug("failed to write " + cache + ": " + e);
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignore) {
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package net.cassite.tdpcli;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Intel platform with more than one cpu package.<br>
+ * The msr copy is read and written on every package in parallel, so the slowest package bounds the time
+ * of one operation. The mmio copy, the units and the energy counter are taken from the first package.<br>
+ * Results contain the values of every package in {@link PowerLimit#packages} and {@link UpdateResult#packages},
+ * while the top level values are the ones of the first package.
+ */
+public class MultiPackageIntelPlatform extends IntelPlatform {
+    private final int[] packageIds;
+    private final IntelPlatform[] packages;
+    private final ExecutorService pool;
+
+    /**
+     * @param packages package id to the platform operating on the package, ordered by package id
+     */
+    public MultiPackageIntelPlatform(Map<Integer, IntelPlatform> packages) {
+        this(packages, packages.values().iterator().next());
+    }
+
+    private MultiPackageIntelPlatform(Map<Integer, IntelPlatform> packages, IntelPlatform first) {
+        super(first::newBatch);
+        this.packageIds = new int[packages.size()];
+        this.packages = new IntelPlatform[packages.size()];
+        int i = 0;
+        for (var e : packages.entrySet()) {
+            packageIds[i] = e.getKey();
+            this.packages[i] = e.getValue();
+            ++i;
+        }
+        var threadIndex = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(packages.size(), r -> {
+            var t = new Thread(r, "tdpcli-package-" + threadIndex.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private <T> List<T> fanOut(Function<IntelPlatform, T> first, Function<IntelPlatform, T> others) {
+        var futures = new ArrayList<CompletableFuture<T>>(packages.length);
+        for (int i = 0; i < packages.length; ++i) {
+            var p = packages[i];
+            var f = i == 0 ? first : others;
+            futures.add(CompletableFuture.supplyAsync(() -> f.apply(p), pool));
+        }
+        var ret = new ArrayList<T>(packages.length);
+        for (int i = 0; i < futures.size(); ++i) {
+            try {
+                ret.add(futures.get(i).join());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof EX) {
+                    throw new EX("package " + packageIds[i] + ": " + e.getCause().getMessage(), e.getCause());
+                }
+                throw new EX("package " + packageIds[i] + " failed", e.getCause());
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public synchronized void setCacheEnabled(boolean cacheEnabled) {
+        super.setCacheEnabled(cacheEnabled);
+        for (var p : packages) {
+            p.setCacheEnabled(cacheEnabled);
+        }
+    }
+
+    @Override
+    public synchronized void setCacheRevalidateSeconds(int cacheRevalidateSeconds) {
+        super.setCacheRevalidateSeconds(cacheRevalidateSeconds);
+        for (var p : packages) {
+            p.setCacheRevalidateSeconds(cacheRevalidateSeconds);
+        }
+    }
+
+    @Override
+    public void setTolerance(double power, double time) {
+        super.setTolerance(power, time);
+        for (var p : packages) {
+            p.setTolerance(power, time);
+        }
+    }
+
+    @Override
+    public synchronized void invalidateCache() {
+        super.invalidateCache();
+        for (var p : packages) {
+            p.invalidateCache();
+        }
+    }
+
+    @Override
+    public PowerLimit getMSRPowerLimit() {
+        var list = fanOut(IntelPlatform::getMSRPowerLimit, IntelPlatform::getMSRPowerLimit);
+        for (int i = 0; i < list.size(); ++i) {
+            list.get(i).packageId = packageIds[i];
+        }
+        var ret = list.get(0).copy();
+        ret.packages = list;
+        return ret;
+    }
+
+    @Override
+    public PowerLimit getMMIOPowerLimit() {
+        return packages[0].getMMIOPowerLimit();
+    }
+
+    @Override
+    public EnergyCounter readEnergyCounter() {
+        return packages[0].readEnergyCounter();
+    }
+
+    @Override
+    public double readPackageTemperature() {
+        double max = Double.NEGATIVE_INFINITY;
+        for (var t : fanOut(IntelPlatform::readPackageTemperature, IntelPlatform::readPackageTemperature)) {
+            max = Math.max(max, t);
+        }
+        return max;
+    }
+
+    @Override
+    public UpdateResult transaction(Args args) {
+        return merge(fanOut(p -> p.transaction(args), p -> p.transaction(args, true, false)));
+    }
+
+    @Override
+    public UpdateResult transaction(Args args, boolean msr, boolean mmio) {
+        return merge(fanOut(p -> p.transaction(args, msr, mmio), p -> p.transaction(args, msr, false)));
+    }
+
+    private UpdateResult merge(List<UpdateResult> list) {
+        var ret = new UpdateResult();
+        ret.msr = list.get(0).msr;
+        ret.mmio = list.get(0).mmio;
+        var limits = new ArrayList<PowerLimit>();
+        for (int i = 0; i < list.size(); ++i) {
+            var r = list.get(i);
+            r.packageId = packageIds[i];
+            ret.msr = UpdateResult.worse(ret.msr, r.msr);
+            if (r.powerLimit != null) {
+                r.powerLimit.packageId = packageIds[i];
+                limits.add(r.powerLimit);
+            }
+        }
+        ret.packages = list;
+        if (list.get(0).powerLimit != null) {
+            ret.powerLimit = list.get(0).powerLimit.copy();
+            ret.powerLimit.packages = limits;
+        }
+        return ret;
+    }
+}
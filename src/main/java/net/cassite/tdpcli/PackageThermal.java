@@ -0,0 +1,75 @@
+package net.cassite.tdpcli;
+
+import net.cassite.tdpcli.util.SysfsFile;
+import net.cassite.tdpcli.util.Utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Linux thermal framework: /sys/class/thermal/thermal_zoneN whose type is x86_pkg_temp.<br>
+ * There's one such zone for each cpu package, the temperature is reported in millidegree celsius.
+ */
+public class PackageThermal implements Closeable {
+    public static final String DEFAULT_ROOT = "/sys/class/thermal";
+    private static final String PACKAGE_TYPE = "x86_pkg_temp";
+
+    private final List<SysfsFile> temps;
+
+    private PackageThermal(List<SysfsFile> temps) {
+        this.temps = temps;
+    }
+
+    /**
+     * @return null if no package thermal zone is found
+     */
+    public static PackageThermal discover(Path root) {
+        var temps = new ArrayList<SysfsFile>();
+        try (var stream = Files.list(root)) {
+            for (var dir : (Iterable<Path>) stream::iterator) {
+                if (!dir.getFileName().toString().startsWith("thermal_zone")) {
+                    continue;
+                }
+                var typeFile = dir.resolve("type");
+                if (!Files.exists(typeFile)) {
+                    continue;
+                }
+                var f = new SysfsFile(typeFile);
+                var type = f.readString();
+                f.close();
+                if (type.equals(PACKAGE_TYPE)) {
+                    Utils.debug("package thermal zone: " + dir);
+                    temps.add(new SysfsFile(dir.resolve("temp")));
+                }
+            }
+        } catch (IOException e) {
+            throw new EX("failed to list " + root, e);
+        }
+        if (temps.isEmpty()) {
+            return null;
+        }
+        return new PackageThermal(temps);
+    }
+
+    /**
+     * @return celsius of the hottest package
+     */
+    public double readMax() {
+        long max = Long.MIN_VALUE;
+        for (var t : temps) {
+            max = Math.max(max, t.readLong());
+        }
+        return max / 1000.0;
+    }
+
+    @Override
+    public void close() {
+        for (var t : temps) {
+            t.close();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package net.cassite.tdpcli;
+
+import net.cassite.tdpcli.util.SysfsFile;
+import net.cassite.tdpcli.util.Utils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Discovers cpu packages from /sys/devices/system/cpu/cpuN/topology/physical_package_id.<br>
+ * Offline cpus do not have the topology directory and are ignored.
+ */
+public class PackageTopology {
+    public static final String DEFAULT_ROOT = "/sys/devices/system/cpu";
+    private static final Pattern CPU_PATTERN = Pattern.compile("cpu(\\d+)");
+
+    private PackageTopology() {
+    }
+
+    /**
+     * @return package id to the smallest online logical cpu of the package, ordered by package id
+     */
+    public static Map<Integer, Integer> discover(Path root) {
+        var ret = new TreeMap<Integer, Integer>();
+        try (var stream = Files.list(root)) {
+            for (var dir : (Iterable<Path>) stream::iterator) {
+                var m = CPU_PATTERN.matcher(dir.getFileName().toString());
+                if (!m.matches()) {
+                    continue;
+                }
+                var idFile = dir.resolve("topology").resolve("physical_package_id");
+                if (!Files.exists(idFile)) {
+                    continue;
+                }
+                int cpu = Integer.parseInt(m.group(1));
+                var f = new SysfsFile(idFile);
+                int pkg = (int) f.readLong();
+                f.close();
+                ret.merge(pkg, cpu, Math::min);
+            }
+        } catch (IOException e) {
+            throw new EX("failed to list " + root, e);
+        }
+        if (ret.isEmpty()) {
+            throw new EX("no cpu package found in " + root);
+        }
+        Utils.debug("cpu packages: " + ret);
+        return ret;
+    }
+}
@@ -0,0 +1,88 @@
+package net.cassite.tdpcli;
+
+import net.cassite.tdpcli.util.Utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Physical memory access via a memory device, e.g. /dev/mem.<br>
+ * The file offset is the physical address, 32-bit values are read and written with positional io
+ * on one channel which is kept open. Each access is a separate syscall, so the order of writes is preserved.<br>
+ * The device is not mapped: FileChannel.map checks the file size, which is 0 for /dev/mem,
+ * and grows an ordinary file to the mapped position.
+ */
+public class PhysicalMemory implements Closeable {
+    private final Path devPath;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(4).order(ByteOrder.LITTLE_ENDIAN);
+    private FileChannel ch;
+
+    public PhysicalMemory(Path devPath) {
+        this.devPath = devPath;
+    }
+
+    private FileChannel channel() {
+        if (ch == null) {
+            try {
+                ch = FileChannel.open(devPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } catch (IOException e) {
+                throw new EX("failed to open " + devPath + ", make sure you have the permission", e);
+            }
+            Utils.debug("opened " + devPath);
+        }
+        return ch;
+    }
+
+    private static void checkAligned(long addr) {
+        if (addr % 4 != 0) {
+            throw new EX("address 0x" + Long.toHexString(addr) + " is not aligned to 4");
+        }
+    }
+
+    public synchronized int read32(long addr) {
+        checkAligned(addr);
+        buf.clear();
+        try {
+            while (buf.hasRemaining()) {
+                int n = channel().read(buf, addr + buf.position());
+                if (n == -1) {
+                    throw new EX("failed to read 0x" + Long.toHexString(addr) + " from " + devPath + ": eof");
+                }
+            }
+        } catch (IOException e) {
+            throw new EX("failed to read 0x" + Long.toHexString(addr) + " from " + devPath, e);
+        }
+        return buf.getInt(0);
+    }
+
+    public synchronized void write32(long addr, int value) {
+        checkAligned(addr);
+        buf.clear();
+        buf.putInt(0, value);
+        try {
+            while (buf.hasRemaining()) {
+                channel().write(buf, addr + buf.position());
+            }
+        } catch (IOException e) {
+            throw new EX("failed to write 0x" + Long.toHexString(addr) + " to " + devPath, e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (ch == null) {
+            return;
+        }
+        try {
+            ch.close();
+        } catch (IOException e) {
+            Utils.warn("failed to close " + devPath + ": " + e);
+        }
+        ch = null;
+    }
+}
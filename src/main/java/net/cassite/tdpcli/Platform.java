@@ -4,4 +4,43 @@ public interface Platform {
     PowerLimit getPowerLimit();
 
     boolean updatePowerLimit(Args args);
+
+    /**
+     * Read the package energy counter.
+     */
+    default EnergyCounter readEnergyCounter() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @return whether {@link #readPackageTemperature()} is supported, may access the hardware
+     */
+    default boolean supportsThermal() {
+        return false;
+    }
+
+    /**
+     * Read the package temperature, the hottest one if there are multiple packages.
+     * Only supported if {@link #supportsThermal()} returns true.
+     *
+     * @return celsius
+     */
+    default double readPackageTemperature() {
+        throw new UnsupportedOperationException("package temperature is not supported on current platform");
+    }
+
+    /**
+     * Set the max differences between current and desired values which are not considered as modified.
+     *
+     * @param power watts
+     * @param time  seconds
+     */
+    default void setTolerance(double power, double time) {
+    }
+
+    /**
+     * Drop cached hardware values, e.g. units, they will be read again on next access.
+     */
+    default void invalidateCache() {
+    }
 }
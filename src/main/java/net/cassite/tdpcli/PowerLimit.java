@@ -1,17 +1,25 @@
 package net.cassite.tdpcli;
 
 import io.vproxy.dep.vjson.JSON;
+import io.vproxy.dep.vjson.deserializer.rule.ArrayRule;
 import io.vproxy.dep.vjson.deserializer.rule.BoolRule;
 import io.vproxy.dep.vjson.deserializer.rule.DoubleRule;
+import io.vproxy.dep.vjson.deserializer.rule.IntRule;
 import io.vproxy.dep.vjson.deserializer.rule.ObjectRule;
 import io.vproxy.dep.vjson.deserializer.rule.Rule;
+import io.vproxy.dep.vjson.util.ArrayBuilder;
 import io.vproxy.dep.vjson.util.ObjectBuilder;
 import net.cassite.tdpcli.util.TableBuilder;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class PowerLimit {
     public boolean locked = false;
     public Limit pl1 = new Limit();
     public Limit pl2 = new Limit();
+    public Integer packageId = null; // only set in power limits of each package
+    public List<PowerLimit> packages = null; // only set on multi-package platforms
 
     public static final class Limit {
         public boolean enabled;
@@ -33,9 +41,39 @@ public class PowerLimit {
                 .put("time", time)
                 .build();
         }
+
+        public Limit copy() {
+            var ret = new Limit();
+            ret.enabled = enabled;
+            ret.power = power;
+            ret.clamping = clamping;
+            ret.time = time;
+            return ret;
+        }
+    }
+
+    /**
+     * @return a copy without the package fields
+     */
+    public PowerLimit copy() {
+        var ret = new PowerLimit();
+        ret.locked = locked;
+        ret.pl1 = pl1.copy();
+        ret.pl2 = pl2.copy();
+        return ret;
     }
 
     public String formatToTable() {
+        if (packages != null) {
+            var sb = new StringBuilder();
+            for (var p : packages) {
+                if (sb.length() > 0) {
+                    sb.append("\n");
+                }
+                sb.append("package ").append(p.packageId).append(":\n").append(p.formatToTable());
+            }
+            return sb.toString();
+        }
         var table = new TableBuilder();
         table.tr().td("Property").td("Value").td("Option");
         table.tr().td("locked").td(locked ? "yes" : "no").td("");
@@ -50,16 +88,34 @@ public class PowerLimit {
         return table.toString();
     }
 
-    public static final Rule<PowerLimit> rule = new ObjectRule<>(PowerLimit::new)
-        .put("locked", (o, b) -> o.locked = b, BoolRule.get())
-        .put("pl1", (o, oo) -> o.pl1 = oo, Limit.rule)
-        .put("pl2", (o, oo) -> o.pl2 = oo, Limit.rule);
+    public static final Rule<PowerLimit> rule;
+
+    static {
+        // packages are power limits as well, so the rule refers to itself
+        var r = new ObjectRule<>(PowerLimit::new);
+        r.put("package", (o, n) -> o.packageId = n, IntRule.get())
+            .put("locked", (o, b) -> o.locked = b, BoolRule.get())
+            .put("pl1", (o, oo) -> o.pl1 = oo, Limit.rule)
+            .put("pl2", (o, oo) -> o.pl2 = oo, Limit.rule)
+            .put("packages", (o, l) -> o.packages = l, new ArrayRule<List<PowerLimit>, PowerLimit>(ArrayList::new, List::add, r));
+        rule = r;
+    }
 
     public JSON.Instance<?> formatToJson() {
-        return new ObjectBuilder()
-            .put("locked", locked)
+        var ob = new ObjectBuilder();
+        if (packageId != null) {
+            ob.put("package", packageId);
+        }
+        ob.put("locked", locked)
             .putInst("pl1", pl1.formatToJson())
-            .putInst("pl2", pl2.formatToJson())
-            .build();
+            .putInst("pl2", pl2.formatToJson());
+        if (packages != null) {
+            var arr = new ArrayBuilder();
+            for (var p : packages) {
+                arr.addInst(p.formatToJson());
+            }
+            ob.putInst("packages", arr.build());
+        }
+        return ob.build();
     }
 }
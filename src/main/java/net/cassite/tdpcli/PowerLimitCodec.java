@@ -0,0 +1,173 @@
+package net.cassite.tdpcli;
+
+import java.util.Arrays;
+
+/**
+ * Encodes and decodes the package power limit layout, which is shared by MSR 0x610 and MCHBAR 0x59A0.<br>
+ * <pre>
+ * [14:0]  pl1 power        [46:32] pl2 power
+ * [15]    pl1 enable       [47]    pl2 enable
+ * [16]    pl1 clamping     [48]    pl2 clamping
+ * [23:17] pl1 time window  [55:49] pl2 time window
+ * [63]    lock
+ * </pre>
+ * The time window is 2^Y * (1.0 + Z/4.0) * time unit, with Y = [4:0] and Z = [6:5] of the 7 bits field.<br>
+ * One codec is built for each unit setting of MSR 0x606. The 128 time windows are precomputed,
+ * so decoding is a table lookup and encoding is a binary search over the sorted windows.
+ */
+public final class PowerLimitCodec {
+    public static final int POWER_MASK = 0x7fff;
+    public static final int TIME_CODES = 128;
+
+    private static final int UNIT_SETTINGS = 16; // both the power unit and the time unit are 4 bits
+    private static final PowerLimitCodec[] codecs = new PowerLimitCodec[UNIT_SETTINGS * UNIT_SETTINGS];
+
+    /**
+     * @param powerUnitBits [3:0] of MSR 0x606, power unit is 1/2^powerUnitBits watts
+     * @param timeUnitBits  [19:16] of MSR 0x606, time unit is 1/2^timeUnitBits seconds
+     */
+    public static PowerLimitCodec of(int powerUnitBits, int timeUnitBits) {
+        int idx = (powerUnitBits & 0xf) * UNIT_SETTINGS + (timeUnitBits & 0xf);
+        var codec = codecs[idx];
+        if (codec == null) {
+            // codecs are immutable, building one twice in a race is harmless
+            codec = new PowerLimitCodec(powerUnitBits & 0xf, timeUnitBits & 0xf);
+            codecs[idx] = codec;
+        }
+        return codec;
+    }
+
+    public final double powerUnit; // watts
+    public final double timeUnit; // seconds
+    private final double[] timeByCode = new double[TIME_CODES];
+    private final double[] sortedTimes = new double[TIME_CODES];
+    private final int[] sortedCodes = new int[TIME_CODES];
+
+    private PowerLimitCodec(int powerUnitBits, int timeUnitBits) {
+        this.powerUnit = 1.0 / (1 << powerUnitBits);
+        this.timeUnit = 1.0 / (1 << timeUnitBits);
+
+        for (int code = 0; code < TIME_CODES; ++code) {
+            int y = code & 0b11111;
+            int z = (code >> 5) & 0b11;
+            timeByCode[code] = (double) (1L << y) * (1.0 + z / 4.0) * timeUnit;
+        }
+        // within one Y, the windows are in [2^Y, 2^Y * 1.75], which never overlaps with another Y,
+        // so ordering by (Y, Z) is ordering by value, and no two codes share the same window
+        int i = 0;
+        for (int y = 0; y < 32; ++y) {
+            for (int z = 0; z < 4; ++z) {
+                int code = (z << 5) | y;
+                sortedCodes[i] = code;
+                sortedTimes[i] = timeByCode[code];
+                ++i;
+            }
+        }
+    }
+
+    public double decodePower(int raw) {
+        return (raw & POWER_MASK) * powerUnit;
+    }
+
+    /**
+     * @return the nearest representable value, saturated to the 15 bits field
+     */
+    public int encodePower(double watts) {
+        long raw = Math.round(watts / powerUnit);
+        if (raw < 0) {
+            return 0;
+        }
+        if (raw > POWER_MASK) {
+            return POWER_MASK;
+        }
+        return (int) raw;
+    }
+
+    public double decodeTime(int code) {
+        return timeByCode[code & 0b1111111];
+    }
+
+    /**
+     * @return code of the nearest representable window, the smaller one is chosen on ties
+     */
+    public int encodeTime(double seconds) {
+        int idx = Arrays.binarySearch(sortedTimes, seconds);
+        if (idx >= 0) {
+            return sortedCodes[idx];
+        }
+        int insert = -idx - 1;
+        if (insert == 0) {
+            return sortedCodes[0];
+        }
+        if (insert == TIME_CODES) {
+            return sortedCodes[TIME_CODES - 1];
+        }
+        double lower = seconds - sortedTimes[insert - 1];
+        double upper = sortedTimes[insert] - seconds;
+        return lower <= upper ? sortedCodes[insert - 1] : sortedCodes[insert];
+    }
+
+    @SuppressWarnings("PointlessBitwiseExpression")
+    public PowerLimit decode(long value) {
+        var ret = new PowerLimit();
+
+        ret.locked = ((value >> 63) & 0b1) == 1;
+
+        ret.pl1.power = decodePower((int) (value >> 0));
+        ret.pl1.enabled = ((value >> 15) & 0b1) == 1;
+        ret.pl1.clamping = ((value >> 16) & 0b1) == 1;
+        ret.pl1.time = decodeTime((int) (value >> 17));
+
+        ret.pl2.power = decodePower((int) (value >> 32));
+        ret.pl2.enabled = ((value >> 47) & 0b1) == 1;
+        ret.pl2.clamping = ((value >> 48) & 0b1) == 1;
+        ret.pl2.time = decodeTime((int) (value >> 49));
+
+        return ret;
+    }
+
+    /**
+     * Applies fields of args to the register value.
+     * A power or time field which differs from the desired one within the tolerance is kept as is.
+     *
+     * @param powerTolerance watts, 0 means exact
+     * @param timeTolerance  seconds, 0 means exact
+     */
+    public long encode(long value, Args args, double powerTolerance, double timeTolerance) {
+        if (args.pl1 != null && !withinTolerance(decodePower((int) value), args.pl1, powerTolerance)) {
+            value = set(value, 0, POWER_MASK, encodePower(args.pl1));
+        }
+        if (args.pl2 != null && !withinTolerance(decodePower((int) (value >> 32)), args.pl2, powerTolerance)) {
+            value = set(value, 32, POWER_MASK, encodePower(args.pl2));
+        }
+        if (args.enable2 != null) {
+            value = set(value, 47, 0b1, args.enable2 ? 1 : 0);
+        }
+        if (args.clamping1 != null) {
+            value = set(value, 16, 0b1, args.clamping1 ? 1 : 0);
+        }
+        if (args.clamping2 != null) {
+            value = set(value, 48, 0b1, args.clamping2 ? 1 : 0);
+        }
+        if (args.time1 != null && !withinTolerance(decodeTime((int) (value >> 17)), args.time1, timeTolerance)) {
+            value = set(value, 17, 0b1111111, encodeTime(args.time1));
+        }
+        return value;
+    }
+
+    private static long set(long value, int shift, long mask, long field) {
+        return (value & ~(mask << shift)) | ((field & mask) << shift);
+    }
+
+    private static boolean withinTolerance(double current, double desired, double tolerance) {
+        return tolerance > 0 && Math.abs(current - desired) <= tolerance;
+    }
+
+    @Override
+    public String toString() {
+        return "PowerLimitCodec{" +
+            "powerUnit=" + powerUnit +
+            ", timeUnit=" + timeUnit +
+            '}';
+    }
+}
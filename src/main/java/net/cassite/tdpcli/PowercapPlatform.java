@@ -0,0 +1,245 @@
+package net.cassite.tdpcli;
+
+import net.cassite.tdpcli.util.SysfsFile;
+import net.cassite.tdpcli.util.Utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Linux powercap framework: /sys/class/powercap/intel-rapl:N<br>
+ * The long_term constraint is mapped to pl1 and the short_term constraint is mapped to pl2.
+ * Limits are written to all packages, and read from the first package.<br>
+ * Locking and clamping are not exposed by powercap.
+ */
+public class PowercapPlatform implements Platform, Closeable {
+    public static final String DEFAULT_ROOT = "/sys/class/powercap";
+    private static final Pattern ZONE_PATTERN = Pattern.compile("intel-rapl:(\\d+)");
+
+    private final List<Zone> zones;
+    private final Path thermalRoot;
+    // thermal zones are discovered on first use
+    private PackageThermal thermal;
+    private boolean thermalDiscovered = false;
+    private volatile double powerTolerance = 0; // watts
+    private volatile double timeTolerance = 0; // seconds
+
+    private static final class Zone {
+        final String name;
+        final SysfsFile enabled;
+        final SysfsFile pl1Power;
+        final SysfsFile pl1Time;
+        final SysfsFile pl2Power;
+        final SysfsFile pl2Time;
+        final Path dir;
+        // energy_uj is usually only readable by root, so they are opened on first use
+        SysfsFile energy;
+        long energyRange;
+
+        Zone(Path dir) {
+            this.dir = dir;
+            var nameFile = new SysfsFile(dir.resolve("name"));
+            name = nameFile.readString();
+            nameFile.close();
+            int longTerm = 0;
+            int shortTerm = 1;
+            for (int i = 0; Files.exists(dir.resolve("constraint_" + i + "_name")); ++i) {
+                var f = new SysfsFile(dir.resolve("constraint_" + i + "_name"));
+                var constraint = f.readString();
+                f.close();
+                if (constraint.equals("long_term")) {
+                    longTerm = i;
+                } else if (constraint.equals("short_term")) {
+                    shortTerm = i;
+                }
+            }
+            enabled = new SysfsFile(dir.resolve("enabled"));
+            pl1Power = new SysfsFile(dir.resolve("constraint_" + longTerm + "_power_limit_uw"));
+            pl1Time = new SysfsFile(dir.resolve("constraint_" + longTerm + "_time_window_us"));
+            pl2Power = new SysfsFile(dir.resolve("constraint_" + shortTerm + "_power_limit_uw"));
+            pl2Time = new SysfsFile(dir.resolve("constraint_" + shortTerm + "_time_window_us"));
+            Utils.debug("powercap zone " + dir + ": " + name + ", long_term = " + longTerm + ", short_term = " + shortTerm);
+        }
+
+        synchronized EnergyCounter readEnergyCounter() {
+            if (energy == null) {
+                var range = new SysfsFile(dir.resolve("max_energy_range_uj"));
+                energyRange = range.readLong() + 1;
+                range.close();
+                energy = new SysfsFile(dir.resolve("energy_uj"));
+            }
+            return new EnergyCounter(energy.readLong(), 0.000_001, energyRange);
+        }
+
+        synchronized void close() {
+            if (energy != null) {
+                energy.close();
+            }
+            enabled.close();
+            pl1Power.close();
+            pl1Time.close();
+            pl2Power.close();
+            pl2Time.close();
+        }
+    }
+
+    public PowercapPlatform(Path root) {
+        this(root, Path.of(PackageThermal.DEFAULT_ROOT));
+    }
+
+    /**
+     * @param thermalRoot the thermal sysfs directory where the package thermal zones are discovered
+     */
+    public PowercapPlatform(Path root, Path thermalRoot) {
+        this.thermalRoot = thermalRoot;
+        List<Path> dirs;
+        try (var stream = Files.list(root)) {
+            dirs = new ArrayList<>(stream
+                .filter(p -> ZONE_PATTERN.matcher(p.getFileName().toString()).matches())
+                .toList());
+        } catch (IOException e) {
+            throw new EX("failed to list " + root, e);
+        }
+        if (dirs.isEmpty()) {
+            throw new EX("no intel-rapl zone found in " + root + ", make sure the intel_rapl module is loaded");
+        }
+        dirs.sort(Comparator.comparingInt(p -> {
+            var m = ZONE_PATTERN.matcher(p.getFileName().toString());
+            //noinspection ResultOfMethodCallIgnored
+            m.matches();
+            return Integer.parseInt(m.group(1));
+        }));
+        var zones = new ArrayList<Zone>(dirs.size());
+        for (var dir : dirs) {
+            zones.add(new Zone(dir));
+        }
+        this.zones = zones;
+    }
+
+    @Override
+    public void setTolerance(double power, double time) {
+        this.powerTolerance = power;
+        this.timeTolerance = time;
+    }
+
+    @Override
+    public PowerLimit getPowerLimit() {
+        return getPowerLimit(zones.get(0));
+    }
+
+    @Override
+    public EnergyCounter readEnergyCounter() {
+        return zones.get(0).readEnergyCounter();
+    }
+
+    private PackageThermal thermal() {
+        if (!thermalDiscovered) {
+            thermal = PackageThermal.discover(thermalRoot);
+            thermalDiscovered = true;
+        }
+        return thermal;
+    }
+
+    @Override
+    public synchronized boolean supportsThermal() {
+        return thermal() != null;
+    }
+
+    @Override
+    public synchronized double readPackageTemperature() {
+        var thermal = thermal();
+        if (thermal == null) {
+            throw new UnsupportedOperationException("no x86_pkg_temp thermal zone is found in " + thermalRoot);
+        }
+        return thermal.readMax();
+    }
+
+    private static PowerLimit getPowerLimit(Zone zone) {
+        var ret = new PowerLimit();
+        boolean enabled = zone.enabled.readLong() != 0;
+
+        ret.pl1.enabled = enabled;
+        ret.pl1.power = zone.pl1Power.readLong() / 1_000_000.0;
+        ret.pl1.time = zone.pl1Time.readLong() / 1_000_000.0;
+
+        ret.pl2.enabled = enabled;
+        ret.pl2.power = zone.pl2Power.readLong() / 1_000_000.0;
+        ret.pl2.time = zone.pl2Time.readLong() / 1_000_000.0;
+
+        return ret;
+    }
+
+    @Override
+    public boolean updatePowerLimit(Args args) {
+        if (args.enable2 != null || args.clamping1 != null || args.clamping2 != null) {
+            Utils.warn("enable2 and clamping are not supported by powercap, they are ignored");
+        }
+        boolean modified = false;
+        for (var zone : zones) {
+            modified |= updatePowerLimit(zone, args, powerTolerance * 1_000_000, timeTolerance * 1_000_000);
+        }
+        return modified;
+    }
+
+    private static boolean updatePowerLimit(Zone zone, Args args, double powerToleranceUW, double timeToleranceUS) {
+        boolean modified = false;
+        long oldPL2 = zone.pl2Power.readLong();
+        Runnable writePL1 = null;
+        if (args.pl1 != null) {
+            long uw = Math.round(args.pl1 * 1_000_000);
+            if (Math.abs(zone.pl1Power.readLong() - uw) > powerToleranceUW) {
+                writePL1 = () -> zone.pl1Power.writeLong(uw);
+            }
+        }
+        Runnable writePL2 = null;
+        if (args.pl2 != null) {
+            long uw = Math.round(args.pl2 * 1_000_000);
+            if (Math.abs(oldPL2 - uw) > powerToleranceUW) {
+                writePL2 = () -> zone.pl2Power.writeLong(uw);
+            }
+        }
+        if (writePL1 != null && writePL2 != null && Math.round(args.pl1 * 1_000_000) > oldPL2) {
+            // need to apply pl2 first because pl1 exceeds old pl2
+            writePL2.run();
+            writePL1.run();
+            modified = true;
+        } else {
+            if (writePL1 != null) {
+                writePL1.run();
+                modified = true;
+            }
+            if (writePL2 != null) {
+                writePL2.run();
+                modified = true;
+            }
+        }
+        if (args.time1 != null) {
+            long us = Math.round(args.time1 * 1_000_000);
+            // the kernel rounds the time window to the nearest value the hardware can represent
+            if (Math.abs(zone.pl1Time.readLong() - us) > Math.max(us / 8, timeToleranceUS)) {
+                zone.pl1Time.writeLong(us);
+                modified = true;
+            }
+        }
+        if (!modified) {
+            Utils.debug("powercap " + zone.name + " not changed");
+        }
+        return modified;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (var zone : zones) {
+            zone.close();
+        }
+        if (thermal != null) {
+            thermal.close();
+        }
+    }
+}
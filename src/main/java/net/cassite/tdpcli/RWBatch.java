@@ -0,0 +1,262 @@
+package net.cassite.tdpcli;
+
+import net.cassite.tdpcli.exec.ProcessExecutor;
+import net.cassite.tdpcli.util.Histogram;
+import net.cassite.tdpcli.util.Utils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects RW-Everything commands of one logical operation and runs them
+ * with a single RW.exe process.<br>
+ * A batch with one command is passed directly via /Command=, otherwise a command script
+ * is generated and the output is split into lines, one line for each command.<br>
+ * Latency is recorded per command type like {@link DirectBatch}. RW-Everything does not time the commands
+ * of a script, so each command of a script is charged an equal share of the process time.
+ */
+public class RWBatch extends RegisterBatch {
+    private static final Map<String, Histogram> latency = Map.of(
+        "RDMSR", new Histogram(),
+        "WRMSR", new Histogram(),
+        "RPCI32", new Histogram(),
+        "R32", new Histogram(),
+        "W32", new Histogram()
+    );
+
+    public static Map<String, Histogram> getLatency() {
+        return latency;
+    }
+
+    private final String rwPath;
+    private final ProcessExecutor executor;
+    private final List<Command> commands = new ArrayList<>();
+
+    public RWBatch(String rwPath, ProcessExecutor executor) {
+        this.rwPath = rwPath;
+        this.executor = executor;
+    }
+
+    private abstract static class Command {
+        final String name;
+        final String cmd;
+
+        Command(String... args) {
+            this.name = args[0];
+            this.cmd = String.join(" ", args);
+        }
+
+        /**
+         * @param output the whole output of the process
+         * @param from   start index of the line for this command
+         * @param to     end index of the line for this command, exclusive and trimmed
+         */
+        abstract void handle(String output, int from, int to);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return commands.isEmpty();
+    }
+
+    @Override
+    public Value readMSR(int loc) {
+        String location = formatLoc(loc);
+        var v = new Value();
+        add(new Command("RDMSR", location) {
+            @Override
+            void handle(String output, int from, int to) {
+                v.set(RWOutputParser.parseReadMSR(location, output, from, to));
+            }
+        });
+        return v;
+    }
+
+    @Override
+    public void writeMSR(int loc, long value) {
+        String location = formatLoc(loc);
+        String high = format32bitLoc((value >> 32) & 0xffffffffL);
+        String low = format32bitLoc((value) & 0xffffffffL);
+        add(new Command("WRMSR", location, high, low, "0") {
+            @Override
+            void handle(String output, int from, int to) {
+                RWOutputParser.checkWriteMSR(location, high, low, output, from, to);
+            }
+        });
+    }
+
+    @Override
+    public Value readPCI32(int b, int d, int f, int loc) {
+        String bus = formatBDF(b);
+        String device = formatBDF(d);
+        String function = formatBDF(f);
+        String location = formatLoc(loc);
+        var v = new Value();
+        add(new Command("RPCI32", bus, device, function, location) {
+            @Override
+            void handle(String output, int from, int to) {
+                v.set(RWOutputParser.parseReadPCI32(bus, device, function, location, output, from, to));
+            }
+        });
+        return v;
+    }
+
+    @Override
+    public Value read32(long loc) {
+        String location = format32bitLoc(loc);
+        var v = new Value();
+        add(new Command("R32", location) {
+            @Override
+            void handle(String output, int from, int to) {
+                v.set(RWOutputParser.parseRead32(location, output, from, to) & 0xffffffffL);
+            }
+        });
+        return v;
+    }
+
+    @Override
+    public void write32(long loc, int v) {
+        String location = format32bitLoc(loc);
+        String value = format32bitLoc(v & 0xffffffffL);
+        add(new Command("W32", location, value) {
+            @Override
+            void handle(String output, int from, int to) {
+                RWOutputParser.checkWrite32(location, value, output, from, to);
+            }
+        });
+    }
+
+    private void add(Command cmd) {
+        checkNotExecuted();
+        commands.add(cmd);
+    }
+
+    @Override
+    protected void doExecute() {
+        if (commands.size() == 1) {
+            var c = commands.get(0);
+            long start = System.nanoTime();
+            var output = exec(c.name, c.cmd);
+            latency.get(c.name).record(System.nanoTime() - start);
+            int from = 0;
+            int to = output.length();
+            while (from < to && Character.isWhitespace(output.charAt(from))) {
+                ++from;
+            }
+            while (to > from && Character.isWhitespace(output.charAt(to - 1))) {
+                --to;
+            }
+            c.handle(output, from, to);
+            return;
+        }
+
+        Path script;
+        try {
+            script = Files.createTempFile("tdpcli-", ".rw");
+        } catch (IOException e) {
+            throw new EX("failed to create command script", e);
+        }
+        String output;
+        try {
+            var sb = new StringBuilder();
+            for (var c : commands) {
+                sb.append(c.cmd).append("\r\n");
+            }
+            Utils.debug("script: " + sb);
+            try {
+                Files.writeString(script, sb);
+            } catch (IOException e) {
+                throw new EX("failed to write command script " + script, e);
+            }
+            long start = System.nanoTime();
+            output = exec("SCRIPT", script.toAbsolutePath().toString());
+            long share = (System.nanoTime() - start) / commands.size();
+            for (var c : commands) {
+                latency.get(c.name).record(share);
+            }
+        } finally {
+            try {
+                Files.deleteIfExists(script);
+            } catch (IOException e) {
+                Utils.warn("failed to delete command script " + script + ": " + e);
+            }
+        }
+
+        // [from, to) of each non-empty line, trimmed
+        var bounds = new int[commands.size() * 2];
+        int lines = 0;
+        int len = output.length();
+        int pos = 0;
+        while (pos < len) {
+            int eol = output.indexOf('\n', pos);
+            if (eol == -1) {
+                eol = len;
+            }
+            int from = pos;
+            int to = eol;
+            while (from < to && Character.isWhitespace(output.charAt(from))) {
+                ++from;
+            }
+            while (to > from && Character.isWhitespace(output.charAt(to - 1))) {
+                --to; // trim the \r if exists
+            }
+            if (from < to) {
+                if (lines < commands.size()) {
+                    bounds[lines * 2] = from;
+                    bounds[lines * 2 + 1] = to;
+                }
+                ++lines;
+            }
+            pos = eol + 1;
+        }
+        if (lines != commands.size()) {
+            throw new EX("unexpected output for command script, expecting " + commands.size() + " lines, but got " + lines + ": " + output);
+        }
+        for (int i = 0; i < commands.size(); ++i) {
+            commands.get(i).handle(output, bounds[i * 2], bounds[i * 2 + 1]);
+        }
+    }
+
+    private String exec(String tag, String command) {
+        var exec = new String[]{
+            rwPath,
+            "/Min", "/Nologo", "/Stdout", "/Command=" + command
+        };
+        var result = executor.executeAndWait(tag, exec);
+        if (result.exitCode != 0) {
+            throw new EX("failed to execute command " + Arrays.toString(exec) + ": exit code: " + result.exitCode + ", output: " + result.stdout);
+        }
+        return result.stdout;
+    }
+
+    private static String formatBDF(int bdf) {
+        String s = Utils.toHexString(bdf);
+        if (s.length() == 1) {
+            s = "0" + s;
+        }
+        return "0x" + s;
+    }
+
+    private static String formatLoc(int loc) {
+        String s = Utils.toHexString(loc);
+        if (s.length() == 1) {
+            s = "00" + s;
+        } else if (s.length() == 2) {
+            s = "0" + s;
+        }
+        return "0x" + s;
+    }
+
+    private static String format32bitLoc(long loc) {
+        String hex = Long.toHexString(loc).toUpperCase();
+        if (hex.length() < 8) {
+            hex = "0".repeat(8 - hex.length()) + hex;
+        }
+        return "0x" + hex;
+    }
+}
@@ -0,0 +1,197 @@
+package net.cassite.tdpcli;
+
+/**
+ * Parses RW-Everything output lines in place.<br>
+ * Each line is addressed by a range of the whole output, expected text is matched piece by piece
+ * against constant prefixes and the command arguments, and hex values are decoded without
+ * creating intermediate strings. Strings are only built for error messages.
+ */
+final class RWOutputParser {
+    private static final String READ_MSR = "Read MSR ";
+    private static final String WRITE_MSR = "Write MSR ";
+    private static final String MSR_HIGH = ": High 32bit(EDX) = ";
+    private static final String MSR_LOW = ", Low 32bit(EAX) = ";
+    private static final String READ_PCI = "Read PCI Bus/Dev/Fun/Offset ";
+    private static final String READ_MEM = "Read Memory Address ";
+    private static final String WRITE_MEM = "Write Memory Address ";
+    private static final String EQ = " = ";
+    private static final String SLASH = "/";
+    private static final String HEX_PREFIX = "0x";
+
+    private RWOutputParser() {
+    }
+
+    /**
+     * Read MSR 0x610: High 32bit(EDX) = 0x00428200, Low 32bit(EAX) = 0x00DC8168
+     */
+    static long parseReadMSR(String location, CharSequence s, int from, int to) {
+        int p = expect(s, from, to, READ_MSR);
+        p = expect(s, p, to, location);
+        p = expect(s, p, to, MSR_HIGH);
+        if (p < 0) {
+            throw mismatch("rdmsr " + location, READ_MSR + location + MSR_HIGH, s, from, to);
+        }
+        int highEnd = scanHex(s, p, to);
+        if (highEnd < 0) {
+            throw invalidHex("rdmsr " + location, s, p, to);
+        }
+        long high = decodeHex(s, p + HEX_PREFIX.length(), highEnd);
+        p = expect(s, highEnd, to, MSR_LOW);
+        if (p < 0) {
+            throw mismatch("rdmsr " + location, s.subSequence(from, highEnd) + MSR_LOW, s, from, to);
+        }
+        int lowEnd = scanHex(s, p, to);
+        if (lowEnd < 0 || !endOfLine(s, lowEnd, to)) {
+            throw invalidHex("rdmsr " + location, s, p, to);
+        }
+        long low = decodeHex(s, p + HEX_PREFIX.length(), lowEnd);
+        return high << 32 | low;
+    }
+
+    /**
+     * Write MSR 0x610: High 32bit(EDX) = 0x00428200, Low 32bit(EAX) = 0x00DC8168
+     */
+    static void checkWriteMSR(String location, String high, String low, CharSequence s, int from, int to) {
+        int p = expect(s, from, to, WRITE_MSR);
+        p = expect(s, p, to, location);
+        p = expect(s, p, to, MSR_HIGH);
+        p = expect(s, p, to, high);
+        p = expect(s, p, to, MSR_LOW);
+        p = expect(s, p, to, low);
+        if (p < 0) {
+            throw mismatch("wrmsr " + location + " " + high + " " + low + " 0",
+                WRITE_MSR + location + MSR_HIGH + high + MSR_LOW + low, s, from, to);
+        }
+    }
+
+    /**
+     * Read PCI Bus/Dev/Fun/Offset 0x00/0x00/0x00/0x048 = 0xFEDC0001
+     */
+    static long parseReadPCI32(String bus, String device, String function, String location, CharSequence s, int from, int to) {
+        int p = expect(s, from, to, READ_PCI);
+        p = expect(s, p, to, bus);
+        p = expect(s, p, to, SLASH);
+        p = expect(s, p, to, device);
+        p = expect(s, p, to, SLASH);
+        p = expect(s, p, to, function);
+        p = expect(s, p, to, SLASH);
+        p = expect(s, p, to, location);
+        p = expect(s, p, to, EQ);
+        if (p < 0) {
+            throw mismatch("rpci32 " + bus + " " + device + " " + function + " " + location,
+                READ_PCI + bus + SLASH + device + SLASH + function + SLASH + location + EQ, s, from, to);
+        }
+        int end = scanHex(s, p, to);
+        if (end < 0 || !endOfLine(s, end, to)) {
+            throw invalidHex("rpci32 " + bus + " " + device + " " + function + " " + location, s, p, to);
+        }
+        return decodeHex(s, p + HEX_PREFIX.length(), end);
+    }
+
+    /**
+     * Read Memory Address 0xFEDD59A0 = 0x00DC8168
+     */
+    static int parseRead32(String location, CharSequence s, int from, int to) {
+        int p = expect(s, from, to, READ_MEM);
+        p = expect(s, p, to, location);
+        p = expect(s, p, to, EQ);
+        if (p < 0) {
+            throw mismatch("r32 " + location, READ_MEM + location + EQ, s, from, to);
+        }
+        int end = scanHex(s, p, to);
+        if (end < 0 || !endOfLine(s, end, to)) {
+            throw invalidHex("r32 " + location, s, p, to);
+        }
+        return (int) decodeHex(s, p + HEX_PREFIX.length(), end);
+    }
+
+    /**
+     * Write Memory Address 0xFEDD59A0 = 0x00DC8168
+     */
+    static void checkWrite32(String location, String value, CharSequence s, int from, int to) {
+        int p = expect(s, from, to, WRITE_MEM);
+        p = expect(s, p, to, location);
+        p = expect(s, p, to, EQ);
+        p = expect(s, p, to, value);
+        if (p < 0 || !endOfLine(s, p, to)) {
+            throw mismatch("w32 " + location + " " + value, WRITE_MEM + location + EQ + value, s, from, to);
+        }
+    }
+
+    /**
+     * @return position after the expected text, or -1 if not matched or if pos is already -1
+     */
+    private static int expect(CharSequence s, int pos, int to, String expected) {
+        if (pos < 0 || to - pos < expected.length()) {
+            return -1;
+        }
+        for (int i = 0; i < expected.length(); ++i) {
+            if (s.charAt(pos + i) != expected.charAt(i)) {
+                return -1;
+            }
+        }
+        return pos + expected.length();
+    }
+
+    /**
+     * @return end position of "0x" followed by 1 to 16 hex digits, or -1 if not valid
+     */
+    private static int scanHex(CharSequence s, int pos, int to) {
+        int p = expect(s, pos, to, HEX_PREFIX);
+        if (p < 0) {
+            return -1;
+        }
+        int start = p;
+        while (p < to && Character.digit(s.charAt(p), 16) >= 0) {
+            ++p;
+        }
+        int digits = p - start;
+        if (digits == 0 || digits > 16) {
+            return -1;
+        }
+        return p;
+    }
+
+    private static long decodeHex(CharSequence s, int from, int to) {
+        long v = 0;
+        for (int i = from; i < to; ++i) {
+            v = (v << 4) | Character.digit(s.charAt(i), 16);
+        }
+        return v;
+    }
+
+    private static boolean endOfLine(CharSequence s, int pos, int to) {
+        for (int i = pos; i < to; ++i) {
+            char c = s.charAt(i);
+            if (c == '\n') {
+                return true;
+            }
+            if (!Character.isWhitespace(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static EX mismatch(String cmd, String expected, CharSequence s, int from, int to) {
+        int column = 0;
+        while (column < expected.length() && from + column < to && s.charAt(from + column) == expected.charAt(column)) {
+            ++column;
+        }
+        String reason;
+        if (column == expected.length()) {
+            reason = "unexpected trailing content at column " + column;
+        } else {
+            reason = "expecting `" + expected + "`, mismatch at column " + column;
+        }
+        return new EX("unexpected output for " + cmd + ": " + reason + ": " + s.subSequence(from, to));
+    }
+
+    private static EX invalidHex(String cmd, CharSequence s, int from, int to) {
+        int end = from;
+        while (end < to && s.charAt(end) != ',' && !Character.isWhitespace(s.charAt(end))) {
+            ++end;
+        }
+        return new EX("unexpected output for " + cmd + ": " + s.subSequence(from, end) + " is not valid hex");
+    }
+}
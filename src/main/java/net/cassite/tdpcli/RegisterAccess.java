@@ -0,0 +1,16 @@
+package net.cassite.tdpcli;
+
+/**
+ * Synchronous register access without spawning processes.
+ */
+public interface RegisterAccess {
+    long readMSR(int loc);
+
+    void writeMSR(int loc, long value);
+
+    long readPCI32(int b, int d, int f, int loc);
+
+    int read32(long loc);
+
+    void write32(long loc, int value);
+}
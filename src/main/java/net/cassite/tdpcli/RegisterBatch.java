@@ -0,0 +1,58 @@
+package net.cassite.tdpcli;
+
+/**
+ * Register accesses of one logical operation.<br>
+ * Read commands return a {@link Value}, which can be retrieved after {@link #execute()}.
+ */
+public abstract class RegisterBatch {
+    private boolean executed = false;
+
+    public static final class Value {
+        private long value;
+        private boolean done = false;
+
+        Value() {
+        }
+
+        public long get() {
+            if (!done) {
+                throw new IllegalStateException("the batch is not executed yet");
+            }
+            return value;
+        }
+
+        void set(long value) {
+            this.value = value;
+            this.done = true;
+        }
+    }
+
+    public abstract boolean isEmpty();
+
+    public abstract Value readMSR(int loc);
+
+    public abstract void writeMSR(int loc, long value);
+
+    public abstract Value readPCI32(int b, int d, int f, int loc);
+
+    public abstract Value read32(long loc);
+
+    public abstract void write32(long loc, int value);
+
+    protected void checkNotExecuted() {
+        if (executed) {
+            throw new IllegalStateException("the batch is already executed");
+        }
+    }
+
+    public final void execute() {
+        checkNotExecuted();
+        executed = true;
+        if (isEmpty()) {
+            return;
+        }
+        doExecute();
+    }
+
+    protected abstract void doExecute();
+}
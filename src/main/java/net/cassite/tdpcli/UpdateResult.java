@@ -0,0 +1,131 @@
+package net.cassite.tdpcli;
+
+import io.vproxy.dep.vjson.JSON;
+import io.vproxy.dep.vjson.util.ArrayBuilder;
+import io.vproxy.dep.vjson.util.ObjectBuilder;
+
+import java.util.List;
+
+/**
+ * Result of one power limit update, reported for each register copy.
+ */
+public class UpdateResult {
+    public enum Outcome {
+        /**
+         * the copy was written and the readback matches
+         */
+        applied,
+        /**
+         * the copy already holds the target value, nothing was written
+         */
+        unchanged,
+        /**
+         * the copy is locked, nothing was written
+         */
+        rejected,
+        /**
+         * the copy was written but the readback differs, e.g. the firmware clamped or ignored the value
+         */
+        overridden,
+        /**
+         * the copy is not accessed by this update
+         */
+        skipped,
+    }
+
+    public Outcome msr = Outcome.skipped;
+    public Outcome mmio = Outcome.skipped;
+    public Integer packageId = null; // only set in results of each package
+    public List<UpdateResult> packages = null; // only set on multi-package platforms
+    // the power limit the transaction ended with, decoded from the copy the target image is computed from,
+    // null if nothing was read
+    public PowerLimit powerLimit = null;
+
+    /**
+     * @return the outcome which needs more attention, used when merging outcomes of multiple packages for display,
+     * {@link #isModified()} and {@link #isFailed()} look at each package instead
+     */
+    public static Outcome worse(Outcome a, Outcome b) {
+        return severity(a) >= severity(b) ? a : b;
+    }
+
+    private static int severity(Outcome outcome) {
+        switch (outcome) {
+            case rejected:
+                return 4;
+            case overridden:
+                return 3;
+            case applied:
+                return 2;
+            case unchanged:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return true if any copy is written, of any package on multi-package platforms
+     */
+    public boolean isModified() {
+        if (packages != null) {
+            for (var p : packages) {
+                if (p.isModified()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return isModified(msr) || isModified(mmio);
+    }
+
+    private static boolean isModified(Outcome outcome) {
+        return outcome == Outcome.applied || outcome == Outcome.overridden;
+    }
+
+    /**
+     * @return true if any copy did not end up with the target value, of any package on multi-package platforms
+     */
+    public boolean isFailed() {
+        if (packages != null) {
+            for (var p : packages) {
+                if (p.isFailed()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return isFailed(msr) || isFailed(mmio);
+    }
+
+    private static boolean isFailed(Outcome outcome) {
+        return outcome == Outcome.rejected || outcome == Outcome.overridden;
+    }
+
+    public JSON.Object formatToJson() {
+        var ob = new ObjectBuilder();
+        if (packageId != null) {
+            ob.put("package", packageId);
+        }
+        ob.put("msr", msr.name())
+            .put("mmio", mmio.name());
+        if (packages != null) {
+            var arr = new ArrayBuilder();
+            for (var p : packages) {
+                arr.addInst(p.formatToJson());
+            }
+            ob.putInst("packages", arr.build());
+        }
+        return ob.build();
+    }
+
+    @Override
+    public String toString() {
+        return "UpdateResult{" +
+            "msr=" + msr +
+            ", mmio=" + mmio +
+            (packageId == null ? "" : ", package=" + packageId) +
+            (packages == null ? "" : ", packages=" + packages) +
+            '}';
+    }
+}
@@ -1,20 +1,121 @@
 package net.cassite.tdpcli.daemon;
 
 import io.vproxy.dep.vjson.JSON;
+import io.vproxy.dep.vjson.deserializer.rule.BoolRule;
+import io.vproxy.dep.vjson.deserializer.rule.DoubleRule;
 import io.vproxy.dep.vjson.deserializer.rule.IntRule;
 import io.vproxy.dep.vjson.deserializer.rule.ObjectRule;
 import io.vproxy.dep.vjson.deserializer.rule.Rule;
+import io.vproxy.dep.vjson.deserializer.rule.StringRule;
 import io.vproxy.dep.vjson.util.ObjectBuilder;
 
 public class Config {
     public static final Rule<Config> rule = new ObjectRule<>(Config::new)
-        .put("interval", (o, n) -> o.interval = n, IntRule.get());
+        .put("interval", (o, n) -> o.interval = n, IntRule.get())
+        .put("cacheRevalidate", (o, n) -> o.cacheRevalidate = n, IntRule.get())
+        .put("readCacheTTL", (o, n) -> o.readCacheTTL = n, IntRule.get())
+        .put("fastInterval", (o, n) -> o.fastInterval = n, IntRule.get())
+        .put("maxInterval", (o, n) -> o.maxInterval = n, IntRule.get())
+        .put("powerTolerance", (o, d) -> o.powerTolerance = d, DoubleRule.get())
+        .put("timeTolerance", (o, d) -> o.timeTolerance = d, DoubleRule.get())
+        .put("sampleInterval", (o, n) -> o.sampleInterval = n, IntRule.get())
+        .put("sampleCapacity", (o, n) -> o.sampleCapacity = n, IntRule.get())
+        .put("applyDebounce", (o, n) -> o.applyDebounce = n, IntRule.get())
+        .put("telemetryPath", (o, s) -> o.telemetryPath = s, StringRule.get())
+        .put("telemetryBudget", (o, n) -> o.telemetryBudget = n, IntRule.get())
+        .put("statePath", (o, s) -> o.statePath = s, StringRule.get())
+        .put("socketPath", (o, s) -> o.socketPath = s, StringRule.get())
+        .put("governor", (o, b) -> o.governor = b, BoolRule.get())
+        .put("governorInterval", (o, n) -> o.governorInterval = n, IntRule.get())
+        .put("governorPl1Floor", (o, d) -> o.governorPl1Floor = d, DoubleRule.get())
+        .put("governorPl1Ceiling", (o, d) -> o.governorPl1Ceiling = d, DoubleRule.get())
+        .put("governorPl2Floor", (o, d) -> o.governorPl2Floor = d, DoubleRule.get())
+        .put("governorPl2Ceiling", (o, d) -> o.governorPl2Ceiling = d, DoubleRule.get())
+        .put("governorSmoothing", (o, d) -> o.governorSmoothing = d, DoubleRule.get())
+        .put("governorHysteresis", (o, d) -> o.governorHysteresis = d, DoubleRule.get())
+        .put("thermal", (o, b) -> o.thermal = b, BoolRule.get())
+        .put("thermalInterval", (o, n) -> o.thermalInterval = n, IntRule.get())
+        .put("thermalTarget", (o, d) -> o.thermalTarget = d, DoubleRule.get())
+        .put("thermalKp", (o, d) -> o.thermalKp = d, DoubleRule.get())
+        .put("thermalKi", (o, d) -> o.thermalKi = d, DoubleRule.get())
+        .put("thermalKd", (o, d) -> o.thermalKd = d, DoubleRule.get())
+        .put("thermalPl1Floor", (o, d) -> o.thermalPl1Floor = d, DoubleRule.get())
+        .put("thermalPl1Ceiling", (o, d) -> o.thermalPl1Ceiling = d, DoubleRule.get());
 
     public int interval = 5; // seconds
+    public int cacheRevalidate = 0; // seconds, 0 means never
+    public int readCacheTTL = 1000; // millis
+    public int fastInterval = 0; // millis, the interval after drift is detected, 0 means same as interval
+    public int maxInterval = 0; // seconds, the interval doubles until this value while no drift, 0 means no backoff
+    public double powerTolerance = 0; // watts
+    public double timeTolerance = 0; // seconds
+    public int sampleInterval = 0; // millis, 0 means power sampling is disabled
+    public int sampleCapacity = 3600; // number of power samples kept in memory
+    public int applyDebounce = 20; // millis, PUT power_limit requests within it are applied together, 0 means disabled
+    public String telemetryPath = ""; // empty means disabled
+    public int telemetryBudget = 64; // MiB for each resolution
+    public String statePath = System.getProperty("user.home") + "/.tdpcli/state.json"; // empty means disabled
+    public String socketPath = UnixSocketRelay.DEFAULT_PATH; // empty means disabled
+    public boolean governor = false; // adjust pl1/pl2 by cpu load
+    public int governorInterval = 2000; // millis
+    public double governorPl1Floor = 15; // watts
+    public double governorPl1Ceiling = 45; // watts
+    public double governorPl2Floor = 20; // watts
+    public double governorPl2Ceiling = 64; // watts
+    public double governorSmoothing = 0.3; // EWMA weight of the newest load sample, (0, 1]
+    public double governorHysteresis = 3; // watts
+    public boolean thermal = false; // cap pl1 by package temperature
+    public int thermalInterval = 1000; // millis
+    public double thermalTarget = 90; // celsius
+    public double thermalKp = 1.0; // watts per celsius
+    public double thermalKi = 0.2; // watts per celsius second
+    public double thermalKd = 0.5; // watts per celsius per second
+    public double thermalPl1Floor = 15; // watts
+    public double thermalPl1Ceiling = 45; // watts
 
     public JSON.Instance<?> toJson() {
         return new ObjectBuilder()
             .put("interval", interval)
+            .put("cacheRevalidate", cacheRevalidate)
+            .put("readCacheTTL", readCacheTTL)
+            .put("fastInterval", fastInterval)
+            .put("maxInterval", maxInterval)
+            .put("powerTolerance", powerTolerance)
+            .put("timeTolerance", timeTolerance)
+            .put("sampleInterval", sampleInterval)
+            .put("sampleCapacity", sampleCapacity)
+            .put("applyDebounce", applyDebounce)
+            .put("telemetryPath", telemetryPath)
+            .put("telemetryBudget", telemetryBudget)
+            .put("statePath", statePath)
+            .put("socketPath", socketPath)
+            .put("governor", governor)
+            .put("governorInterval", governorInterval)
+            .put("governorPl1Floor", governorPl1Floor)
+            .put("governorPl1Ceiling", governorPl1Ceiling)
+            .put("governorPl2Floor", governorPl2Floor)
+            .put("governorPl2Ceiling", governorPl2Ceiling)
+            .put("governorSmoothing", governorSmoothing)
+            .put("governorHysteresis", governorHysteresis)
+            .put("thermal", thermal)
+            .put("thermalInterval", thermalInterval)
+            .put("thermalTarget", thermalTarget)
+            .put("thermalKp", thermalKp)
+            .put("thermalKi", thermalKi)
+            .put("thermalKd", thermalKd)
+            .put("thermalPl1Floor", thermalPl1Floor)
+            .put("thermalPl1Ceiling", thermalPl1Ceiling)
             .build();
     }
+
+    public int fastIntervalMillis() {
+        if (fastInterval > 0) {
+            return fastInterval;
+        }
+        return interval * 1000;
+    }
+
+    public int maxIntervalMillis() {
+        return Math.max(maxInterval * 1000, fastIntervalMillis());
+    }
 }
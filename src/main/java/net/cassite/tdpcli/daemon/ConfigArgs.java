@@ -0,0 +1,475 @@
+package net.cassite.tdpcli.daemon;
+
+import io.vproxy.dep.vjson.JSON;
+import io.vproxy.dep.vjson.deserializer.rule.BoolRule;
+import io.vproxy.dep.vjson.deserializer.rule.DoubleRule;
+import io.vproxy.dep.vjson.deserializer.rule.IntRule;
+import io.vproxy.dep.vjson.deserializer.rule.ObjectRule;
+import io.vproxy.dep.vjson.deserializer.rule.Rule;
+import io.vproxy.dep.vjson.util.ObjectBuilder;
+import net.cassite.tdpcli.Args;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Partial update of {@link Config}, null fields are not modified.
+ */
+public class ConfigArgs {
+    private static final int MAX_THERMAL_TARGET = 110; // celsius, no tjmax is higher than this
+
+    public Integer interval;
+    public Integer cacheRevalidate;
+    public Integer readCacheTTL;
+    public Integer fastInterval;
+    public Integer maxInterval;
+    public Double powerTolerance;
+    public Double timeTolerance;
+    public Integer sampleInterval;
+    public Integer sampleCapacity;
+    public Integer applyDebounce;
+    public Boolean governor;
+    public Integer governorInterval;
+    public Double governorPl1Floor;
+    public Double governorPl1Ceiling;
+    public Double governorPl2Floor;
+    public Double governorPl2Ceiling;
+    public Double governorSmoothing;
+    public Double governorHysteresis;
+    public Boolean thermal;
+    public Integer thermalInterval;
+    public Double thermalTarget;
+    public Double thermalKp;
+    public Double thermalKi;
+    public Double thermalKd;
+    public Double thermalPl1Floor;
+    public Double thermalPl1Ceiling;
+
+    public static final Rule<ConfigArgs> rule = new ObjectRule<>(ConfigArgs::new)
+        .put("interval", (o, n) -> o.interval = n, IntRule.get())
+        .put("cacheRevalidate", (o, n) -> o.cacheRevalidate = n, IntRule.get())
+        .put("readCacheTTL", (o, n) -> o.readCacheTTL = n, IntRule.get())
+        .put("fastInterval", (o, n) -> o.fastInterval = n, IntRule.get())
+        .put("maxInterval", (o, n) -> o.maxInterval = n, IntRule.get())
+        .put("powerTolerance", (o, d) -> o.powerTolerance = d, DoubleRule.get())
+        .put("timeTolerance", (o, d) -> o.timeTolerance = d, DoubleRule.get())
+        .put("sampleInterval", (o, n) -> o.sampleInterval = n, IntRule.get())
+        .put("sampleCapacity", (o, n) -> o.sampleCapacity = n, IntRule.get())
+        .put("applyDebounce", (o, n) -> o.applyDebounce = n, IntRule.get())
+        .put("governor", (o, b) -> o.governor = b, BoolRule.get())
+        .put("governorInterval", (o, n) -> o.governorInterval = n, IntRule.get())
+        .put("governorPl1Floor", (o, d) -> o.governorPl1Floor = d, DoubleRule.get())
+        .put("governorPl1Ceiling", (o, d) -> o.governorPl1Ceiling = d, DoubleRule.get())
+        .put("governorPl2Floor", (o, d) -> o.governorPl2Floor = d, DoubleRule.get())
+        .put("governorPl2Ceiling", (o, d) -> o.governorPl2Ceiling = d, DoubleRule.get())
+        .put("governorSmoothing", (o, d) -> o.governorSmoothing = d, DoubleRule.get())
+        .put("governorHysteresis", (o, d) -> o.governorHysteresis = d, DoubleRule.get())
+        .put("thermal", (o, b) -> o.thermal = b, BoolRule.get())
+        .put("thermalInterval", (o, n) -> o.thermalInterval = n, IntRule.get())
+        .put("thermalTarget", (o, d) -> o.thermalTarget = d, DoubleRule.get())
+        .put("thermalKp", (o, d) -> o.thermalKp = d, DoubleRule.get())
+        .put("thermalKi", (o, d) -> o.thermalKi = d, DoubleRule.get())
+        .put("thermalKd", (o, d) -> o.thermalKd = d, DoubleRule.get())
+        .put("thermalPl1Floor", (o, d) -> o.thermalPl1Floor = d, DoubleRule.get())
+        .put("thermalPl1Ceiling", (o, d) -> o.thermalPl1Ceiling = d, DoubleRule.get());
+
+    public String checkAndAssignToConfig(Config config) {
+        // nothing is assigned unless all fields are valid, a rejected request leaves the config unchanged
+        String err = check(config);
+        if (err != null) {
+            return err;
+        }
+        assignTo(config);
+        return null;
+    }
+
+    private String check(Config config) {
+        if (interval != null && interval < 0) {
+            return "cannot use negative interval";
+        }
+        if (cacheRevalidate != null && cacheRevalidate < 0) {
+            return "cannot use negative cacheRevalidate";
+        }
+        if (readCacheTTL != null && readCacheTTL < 0) {
+            return "cannot use negative readCacheTTL";
+        }
+        if (fastInterval != null && fastInterval < 0) {
+            return "cannot use negative fastInterval";
+        }
+        if (maxInterval != null && maxInterval < 0) {
+            return "cannot use negative maxInterval";
+        }
+        if (powerTolerance != null && powerTolerance < 0) {
+            return "cannot use negative powerTolerance";
+        }
+        if (timeTolerance != null && timeTolerance < 0) {
+            return "cannot use negative timeTolerance";
+        }
+        if (sampleInterval != null && sampleInterval < 0) {
+            return "cannot use negative sampleInterval";
+        }
+        if (sampleCapacity != null && sampleCapacity <= 0) {
+            return "sampleCapacity must be positive";
+        }
+        if (applyDebounce != null && applyDebounce < 0) {
+            return "cannot use negative applyDebounce";
+        }
+        if (governorInterval != null && governorInterval <= 0) {
+            return "governorInterval must be positive";
+        }
+        String err = checkRange("governor pl1",
+            governorPl1Floor == null ? config.governorPl1Floor : governorPl1Floor,
+            governorPl1Ceiling == null ? config.governorPl1Ceiling : governorPl1Ceiling);
+        if (err != null) {
+            return err;
+        }
+        err = checkRange("governor pl2",
+            governorPl2Floor == null ? config.governorPl2Floor : governorPl2Floor,
+            governorPl2Ceiling == null ? config.governorPl2Ceiling : governorPl2Ceiling);
+        if (err != null) {
+            return err;
+        }
+        if (governorSmoothing != null && (governorSmoothing <= 0 || governorSmoothing > 1)) {
+            return "governorSmoothing must be in (0, 1]";
+        }
+        if (governorHysteresis != null && governorHysteresis < 0) {
+            return "cannot use negative governorHysteresis";
+        }
+        if (thermalInterval != null && thermalInterval <= 0) {
+            return "thermalInterval must be positive";
+        }
+        if (thermalTarget != null && (thermalTarget <= 0 || thermalTarget > MAX_THERMAL_TARGET)) {
+            return "thermalTarget out of range: (0, " + MAX_THERMAL_TARGET + "]";
+        }
+        if ((thermalKp != null && thermalKp < 0) || (thermalKi != null && thermalKi < 0) || (thermalKd != null && thermalKd < 0)) {
+            return "cannot use negative thermal gains";
+        }
+        return checkRange("thermal pl1",
+            thermalPl1Floor == null ? config.thermalPl1Floor : thermalPl1Floor,
+            thermalPl1Ceiling == null ? config.thermalPl1Ceiling : thermalPl1Ceiling);
+    }
+
+    private void assignTo(Config config) {
+        if (interval != null && interval != 0) {
+            config.interval = interval;
+        }
+        if (cacheRevalidate != null) {
+            config.cacheRevalidate = cacheRevalidate;
+        }
+        if (readCacheTTL != null) {
+            config.readCacheTTL = readCacheTTL;
+        }
+        if (fastInterval != null) {
+            config.fastInterval = fastInterval;
+        }
+        if (maxInterval != null) {
+            config.maxInterval = maxInterval;
+        }
+        if (powerTolerance != null) {
+            config.powerTolerance = powerTolerance;
+        }
+        if (timeTolerance != null) {
+            config.timeTolerance = timeTolerance;
+        }
+        if (sampleInterval != null) {
+            config.sampleInterval = sampleInterval;
+        }
+        if (sampleCapacity != null) {
+            config.sampleCapacity = sampleCapacity;
+        }
+        if (applyDebounce != null) {
+            config.applyDebounce = applyDebounce;
+        }
+        if (governor != null) {
+            config.governor = governor;
+        }
+        if (governorInterval != null) {
+            config.governorInterval = governorInterval;
+        }
+        if (governorPl1Floor != null) {
+            config.governorPl1Floor = governorPl1Floor;
+        }
+        if (governorPl1Ceiling != null) {
+            config.governorPl1Ceiling = governorPl1Ceiling;
+        }
+        if (governorPl2Floor != null) {
+            config.governorPl2Floor = governorPl2Floor;
+        }
+        if (governorPl2Ceiling != null) {
+            config.governorPl2Ceiling = governorPl2Ceiling;
+        }
+        if (governorSmoothing != null) {
+            config.governorSmoothing = governorSmoothing;
+        }
+        if (governorHysteresis != null) {
+            config.governorHysteresis = governorHysteresis;
+        }
+        if (thermal != null) {
+            config.thermal = thermal;
+        }
+        if (thermalInterval != null) {
+            config.thermalInterval = thermalInterval;
+        }
+        if (thermalTarget != null) {
+            config.thermalTarget = thermalTarget;
+        }
+        if (thermalKp != null) {
+            config.thermalKp = thermalKp;
+        }
+        if (thermalKi != null) {
+            config.thermalKi = thermalKi;
+        }
+        if (thermalKd != null) {
+            config.thermalKd = thermalKd;
+        }
+        if (thermalPl1Floor != null) {
+            config.thermalPl1Floor = thermalPl1Floor;
+        }
+        if (thermalPl1Ceiling != null) {
+            config.thermalPl1Ceiling = thermalPl1Ceiling;
+        }
+    }
+
+    private static String checkRange(String field, double floor, double ceiling) {
+        if (floor < Args.MIN_ALLOWED_WATTS || ceiling > Args.MAX_ALLOWED_WATTS) {
+            return field + " range out of range: [" + Args.MIN_ALLOWED_WATTS + ", " + Args.MAX_ALLOWED_WATTS + "]";
+        }
+        if (floor > ceiling) {
+            return field + " floor must not exceed the ceiling";
+        }
+        return null;
+    }
+
+    public boolean isSamplerModified() {
+        return sampleInterval != null || sampleCapacity != null;
+    }
+
+    public boolean isGovernorModified() {
+        return governor != null || governorInterval != null
+            || governorPl1Floor != null || governorPl1Ceiling != null
+            || governorPl2Floor != null || governorPl2Ceiling != null
+            || governorSmoothing != null || governorHysteresis != null;
+    }
+
+    /**
+     * @return the non-null fields, in the same format as the request body
+     */
+    public JSON.Object formatToJson() {
+        var ob = new ObjectBuilder();
+        if (interval != null) {
+            ob.put("interval", interval);
+        }
+        if (cacheRevalidate != null) {
+            ob.put("cacheRevalidate", cacheRevalidate);
+        }
+        if (readCacheTTL != null) {
+            ob.put("readCacheTTL", readCacheTTL);
+        }
+        if (fastInterval != null) {
+            ob.put("fastInterval", fastInterval);
+        }
+        if (maxInterval != null) {
+            ob.put("maxInterval", maxInterval);
+        }
+        if (powerTolerance != null) {
+            ob.put("powerTolerance", powerTolerance);
+        }
+        if (timeTolerance != null) {
+            ob.put("timeTolerance", timeTolerance);
+        }
+        if (sampleInterval != null) {
+            ob.put("sampleInterval", sampleInterval);
+        }
+        if (sampleCapacity != null) {
+            ob.put("sampleCapacity", sampleCapacity);
+        }
+        if (applyDebounce != null) {
+            ob.put("applyDebounce", applyDebounce);
+        }
+        if (governor != null) {
+            ob.put("governor", governor);
+        }
+        if (governorInterval != null) {
+            ob.put("governorInterval", governorInterval);
+        }
+        if (governorPl1Floor != null) {
+            ob.put("governorPl1Floor", governorPl1Floor);
+        }
+        if (governorPl1Ceiling != null) {
+            ob.put("governorPl1Ceiling", governorPl1Ceiling);
+        }
+        if (governorPl2Floor != null) {
+            ob.put("governorPl2Floor", governorPl2Floor);
+        }
+        if (governorPl2Ceiling != null) {
+            ob.put("governorPl2Ceiling", governorPl2Ceiling);
+        }
+        if (governorSmoothing != null) {
+            ob.put("governorSmoothing", governorSmoothing);
+        }
+        if (governorHysteresis != null) {
+            ob.put("governorHysteresis", governorHysteresis);
+        }
+        if (thermal != null) {
+            ob.put("thermal", thermal);
+        }
+        if (thermalInterval != null) {
+            ob.put("thermalInterval", thermalInterval);
+        }
+        if (thermalTarget != null) {
+            ob.put("thermalTarget", thermalTarget);
+        }
+        if (thermalKp != null) {
+            ob.put("thermalKp", thermalKp);
+        }
+        if (thermalKi != null) {
+            ob.put("thermalKi", thermalKi);
+        }
+        if (thermalKd != null) {
+            ob.put("thermalKd", thermalKd);
+        }
+        if (thermalPl1Floor != null) {
+            ob.put("thermalPl1Floor", thermalPl1Floor);
+        }
+        if (thermalPl1Ceiling != null) {
+            ob.put("thermalPl1Ceiling", thermalPl1Ceiling);
+        }
+        return ob.build();
+    }
+
+    /**
+     * Merge the non-null fields of another partial update into this one.
+     */
+    public void from(ConfigArgs other) {
+        if (other.interval != null) {
+            interval = other.interval;
+        }
+        if (other.cacheRevalidate != null) {
+            cacheRevalidate = other.cacheRevalidate;
+        }
+        if (other.readCacheTTL != null) {
+            readCacheTTL = other.readCacheTTL;
+        }
+        if (other.fastInterval != null) {
+            fastInterval = other.fastInterval;
+        }
+        if (other.maxInterval != null) {
+            maxInterval = other.maxInterval;
+        }
+        if (other.powerTolerance != null) {
+            powerTolerance = other.powerTolerance;
+        }
+        if (other.timeTolerance != null) {
+            timeTolerance = other.timeTolerance;
+        }
+        if (other.sampleInterval != null) {
+            sampleInterval = other.sampleInterval;
+        }
+        if (other.sampleCapacity != null) {
+            sampleCapacity = other.sampleCapacity;
+        }
+        if (other.applyDebounce != null) {
+            applyDebounce = other.applyDebounce;
+        }
+        if (other.governor != null) {
+            governor = other.governor;
+        }
+        if (other.governorInterval != null) {
+            governorInterval = other.governorInterval;
+        }
+        if (other.governorPl1Floor != null) {
+            governorPl1Floor = other.governorPl1Floor;
+        }
+        if (other.governorPl1Ceiling != null) {
+            governorPl1Ceiling = other.governorPl1Ceiling;
+        }
+        if (other.governorPl2Floor != null) {
+            governorPl2Floor = other.governorPl2Floor;
+        }
+        if (other.governorPl2Ceiling != null) {
+            governorPl2Ceiling = other.governorPl2Ceiling;
+        }
+        if (other.governorSmoothing != null) {
+            governorSmoothing = other.governorSmoothing;
+        }
+        if (other.governorHysteresis != null) {
+            governorHysteresis = other.governorHysteresis;
+        }
+        if (other.thermal != null) {
+            thermal = other.thermal;
+        }
+        if (other.thermalInterval != null) {
+            thermalInterval = other.thermalInterval;
+        }
+        if (other.thermalTarget != null) {
+            thermalTarget = other.thermalTarget;
+        }
+        if (other.thermalKp != null) {
+            thermalKp = other.thermalKp;
+        }
+        if (other.thermalKi != null) {
+            thermalKi = other.thermalKi;
+        }
+        if (other.thermalKd != null) {
+            thermalKd = other.thermalKd;
+        }
+        if (other.thermalPl1Floor != null) {
+            thermalPl1Floor = other.thermalPl1Floor;
+        }
+        if (other.thermalPl1Ceiling != null) {
+            thermalPl1Ceiling = other.thermalPl1Ceiling;
+        }
+    }
+
+    /**
+     * @return descriptions of the non-null fields which differ from the config, in the form of `field: current -> this`
+     */
+    public List<String> differences(Config config) {
+        var ret = new ArrayList<String>();
+        if (interval != null && interval != 0) {
+            diff(ret, "interval", interval, config.interval);
+        }
+        diff(ret, "cacheRevalidate", cacheRevalidate, config.cacheRevalidate);
+        diff(ret, "readCacheTTL", readCacheTTL, config.readCacheTTL);
+        diff(ret, "fastInterval", fastInterval, config.fastInterval);
+        diff(ret, "maxInterval", maxInterval, config.maxInterval);
+        diff(ret, "powerTolerance", powerTolerance, config.powerTolerance);
+        diff(ret, "timeTolerance", timeTolerance, config.timeTolerance);
+        diff(ret, "sampleInterval", sampleInterval, config.sampleInterval);
+        diff(ret, "sampleCapacity", sampleCapacity, config.sampleCapacity);
+        diff(ret, "applyDebounce", applyDebounce, config.applyDebounce);
+        diff(ret, "governor", governor, config.governor);
+        diff(ret, "governorInterval", governorInterval, config.governorInterval);
+        diff(ret, "governorPl1Floor", governorPl1Floor, config.governorPl1Floor);
+        diff(ret, "governorPl1Ceiling", governorPl1Ceiling, config.governorPl1Ceiling);
+        diff(ret, "governorPl2Floor", governorPl2Floor, config.governorPl2Floor);
+        diff(ret, "governorPl2Ceiling", governorPl2Ceiling, config.governorPl2Ceiling);
+        diff(ret, "governorSmoothing", governorSmoothing, config.governorSmoothing);
+        diff(ret, "governorHysteresis", governorHysteresis, config.governorHysteresis);
+        diff(ret, "thermal", thermal, config.thermal);
+        diff(ret, "thermalInterval", thermalInterval, config.thermalInterval);
+        diff(ret, "thermalTarget", thermalTarget, config.thermalTarget);
+        diff(ret, "thermalKp", thermalKp, config.thermalKp);
+        diff(ret, "thermalKi", thermalKi, config.thermalKi);
+        diff(ret, "thermalKd", thermalKd, config.thermalKd);
+        diff(ret, "thermalPl1Floor", thermalPl1Floor, config.thermalPl1Floor);
+        diff(ret, "thermalPl1Ceiling", thermalPl1Ceiling, config.thermalPl1Ceiling);
+        return ret;
+    }
+
+    private static void diff(List<String> ret, String field, Object value, Object current) {
+        if (value != null && !value.equals(current)) {
+            ret.add(field + ": " + current + " -> " + value);
+        }
+    }
+
+    public boolean isThermalModified() {
+        return thermal != null || thermalInterval != null || thermalTarget != null
+            || thermalKp != null || thermalKi != null || thermalKd != null
+            || thermalPl1Floor != null || thermalPl1Ceiling != null;
+    }
+
+    public boolean isTimerModified() {
+        return (interval != null && interval != 0) || fastInterval != null || maxInterval != null;
+    }
+}
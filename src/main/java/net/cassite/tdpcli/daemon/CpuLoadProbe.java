@@ -0,0 +1,34 @@
+package net.cassite.tdpcli.daemon;
+
+import oshi.SystemInfo;
+import oshi.hardware.CentralProcessor;
+
+/**
+ * Samples cpu utilization and run queue length via oshi.<br>
+ * Utilization is computed between two consecutive calls of {@link #sample()}.
+ */
+public class CpuLoadProbe {
+    private final CentralProcessor processor;
+    private final int cpus;
+    private long[] prevTicks;
+
+    public CpuLoadProbe() {
+        this.processor = new SystemInfo().getHardware().getProcessor();
+        this.cpus = Math.max(1, processor.getLogicalProcessorCount());
+        this.prevTicks = processor.getSystemCpuLoadTicks();
+    }
+
+    /**
+     * @return [utilization in [0, 1], 1 minute load average divided by the number of logical cpus,
+     * negative if not available]
+     */
+    public double[] sample() {
+        double utilization = processor.getSystemCpuLoadBetweenTicks(prevTicks);
+        prevTicks = processor.getSystemCpuLoadTicks();
+        double load = processor.getSystemLoadAverage(1)[0];
+        return new double[]{
+            Math.max(0, Math.min(1, utilization)),
+            load < 0 ? -1 : load / cpus,
+        };
+    }
+}
@@ -1,10 +1,11 @@
 package net.cassite.tdpcli.daemon
 
 import io.vproxy.base.connection.NetEventLoop
-import io.vproxy.base.selector.PeriodicEvent
 import io.vproxy.base.selector.SelectorEventLoop
+import io.vproxy.base.selector.TimerEvent
 import io.vproxy.base.util.thread.VProxyThread
 import io.vproxy.dep.vjson.JSON
+import io.vproxy.dep.vjson.util.ArrayBuilder
 import io.vproxy.dep.vjson.util.ObjectBuilder
 import io.vproxy.lib.common.coroutine
 import io.vproxy.lib.common.launch
@@ -12,15 +13,70 @@ import io.vproxy.lib.http.RoutingContext
 import io.vproxy.lib.http1.CoroutineHttp1Server
 import io.vproxy.vfd.IPPort
 import net.cassite.tdpcli.Args
+import net.cassite.tdpcli.EX
 import net.cassite.tdpcli.IntelPlatform
 import net.cassite.tdpcli.Platform
+import net.cassite.tdpcli.PowerLimit
+import net.cassite.tdpcli.UpdateResult
+import net.cassite.tdpcli.daemon.telemetry.Resolution
+import net.cassite.tdpcli.daemon.telemetry.TelemetryStore
+import net.cassite.tdpcli.exec.ProcessExecutor
 import net.cassite.tdpcli.util.Utils
 import net.cassite.tdpcli.util.Version
+import java.nio.file.Path
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
+import kotlin.coroutines.suspendCoroutine
+import kotlin.math.min
 
-class Daemon(private val ipport: IPPort, private val platform: Platform, private val config: Config) {
+private const val WATCH_HEARTBEAT_MILLIS = 15_000
+private const val TELEMETRY_FORCE_MILLIS = 60_000
+private const val THERMAL_MAX_FAILURES = 3 // consecutive temperature read failures before the pl1 cap is released
+private const val THERMAL_FAILURE_LOG_MILLIS = 60_000
+
+class Daemon(
+  private val ipport: IPPort,
+  private val platform: Platform,
+  private val config: Config,
+  private val stateStore: StateStore? = null,
+) {
   private var args: Args? = null
   private val loop = NetEventLoop(SelectorEventLoop.open())
-  private lateinit var periodicEvent: PeriodicEvent
+  private var timer: TimerEvent? = null
+  private var timerGeneration = 0L
+  private var currentInterval = 0 // millis
+  private val worker = HardwareWorker()
+  private val readCache = PowerLimitCache()
+  private val sampler = PowerSampler(config.sampleCapacity)
+  private var sampleTimer: TimerEvent? = null
+  private var sampleGeneration = 0L
+  private val telemetry: TelemetryStore? = openTelemetry()
+  private var driftCount = 0L // incremented on each detected drift
+  private var driftRecorded = 0L // driftCount when the last telemetry record was written
+  private val metrics = DaemonMetrics()
+  private var lastRead: PowerLimitCache.Sample? = null // the latest power limit read by GET power_limit, for metrics
+  @Volatile
+  private var enforcedRead: PowerLimitCache.Sample? = null // the power limit read by the latest enforcement, for metrics
+  private var lastEnforced: Args? = null // the latest snapshot written or verified by the enforcement, for metrics
+  private val governor = Governor(config)
+  private var loadProbe: CpuLoadProbe? = null // created on the hardware thread
+  private var governorTimer: TimerEvent? = null
+  private var governorGeneration = 0L
+  private var governorLimits: Governor.Decision? = null // applied on top of the desired pl1 and pl2
+  private val thermal = ThermalController(config)
+  private var thermalCap: Double? = null // watts, applied on top of the desired pl1
+  private var thermalTimer: TimerEvent? = null
+  private var thermalGeneration = 0L
+  private var thermalFailures = 0 // consecutive temperature read failures
+  private var thermalFailureLogged = 0L // millis, when the last read failure was logged
+  private var enforceInFlight = false
+  private var enforcePending = false
+  private val watchHub = WatchHub(WatchHub.DEFAULT_CAPACITY)
+  private var pendingApply: CompletableFuture<Boolean>? = null // the debounced apply of PUT power_limit
+  private var pendingArgs: Args? = null // the desired args with the changes of the debounce window, folded into args when it fires
+  private var lastApply: CompletableFuture<Boolean>? = null // the latest apply of PUT power_limit, until it's written
   private val server: CoroutineHttp1Server
 
   init {
@@ -31,47 +87,460 @@ class Daemon(private val ipport: IPPort, private val platform: Platform, private
 
     server.all("/", ::accessLog)
     server.all("/*", ::accessLog)
-    server.get("/tdpcli/api/v1.0/version") { it.conn.response(200).send(ObjectBuilder().put("version", Version.VERSION).build()) }
-    server.get("/tdpcli/api/v1.0/power_limit", ::getPowerLimit)
-    server.get("/tdpcli/api/v1.0/config", ::getConfig)
-    server.put("/tdpcli/api/v1.0/power_limit", ::setPowerLimit)
-    server.put("/tdpcli/api/v1.0/config", ::setConfig)
+    get("/tdpcli/api/v1.0/version") { it.conn.response(200).send(ObjectBuilder().put("version", Version.VERSION).build()) }
+    get("/tdpcli/api/v1.0/power_limit", ::getPowerLimit)
+    get("/tdpcli/api/v1.0/power", ::getPower)
+    get("/tdpcli/api/v1.0/history", ::getHistory)
+    get("/tdpcli/api/v1.0/config", ::getConfig)
+    get("/tdpcli/api/v1.0/governor") { it.conn.response(200).send(governor.formatToJson()) }
+    get("/tdpcli/api/v1.0/thermal") { it.conn.response(200).send(thermal.formatToJson()) }
+    get("/metrics", ::getMetrics)
+    server.get("/tdpcli/api/v1.0/watch", ::watch) // long lived, not metered
+    put("/tdpcli/api/v1.0/power_limit", ::setPowerLimit)
+    put("/tdpcli/api/v1.0/config", ::setConfig)
+
+    applyPlatformConfig()
+  }
+
+  private fun get(route: String, handler: suspend (RoutingContext) -> Unit) {
+    server.get(route, metered("GET", route, handler))
+  }
+
+  private fun put(route: String, handler: suspend (RoutingContext) -> Unit) {
+    server.put(route, metered("PUT", route, handler))
+  }
+
+  private fun metered(method: String, route: String, handler: suspend (RoutingContext) -> Unit): suspend (RoutingContext) -> Unit {
+    val histogram = metrics.route(method, route)
+    return { ctx ->
+      val start = System.nanoTime()
+      try {
+        handler(ctx)
+      } finally {
+        histogram.record(System.nanoTime() - start)
+      }
+    }
+  }
+
+  private fun openTelemetry(): TelemetryStore? {
+    if (config.telemetryPath.isEmpty()) {
+      return null
+    }
+    val store = try {
+      TelemetryStore(Path.of(config.telemetryPath), config.telemetryBudget * 1024L * 1024L)
+    } catch (e: EX) {
+      Utils.error("failed to open telemetry store, history is disabled: $e")
+      return null
+    }
+    Runtime.getRuntime().addShutdownHook(Thread({ store.force() }, "telemetry-force"))
+    return store
+  }
+
+  private fun applyPlatformConfig() {
+    if (platform is IntelPlatform) {
+      platform.setCacheRevalidateSeconds(config.cacheRevalidate)
+    }
+    platform.setTolerance(config.powerTolerance, config.timeTolerance)
   }
 
   fun start() {
+    if (config.socketPath.isNotEmpty()) {
+      try {
+        UnixSocketRelay(Path.of(config.socketPath), ipport.toInetSocketAddress()).start()
+      } catch (e: EX) {
+        Utils.error("the cli cannot reach the daemon via unix socket: $e")
+      }
+    }
     loop.selectorEventLoop.launch {
       Utils.info("daemon is listening on $ipport")
+      restartSampler()
+      restartGovernor()
+      restartThermal()
+      loop.selectorEventLoop.period(WATCH_HEARTBEAT_MILLIS) {
+        if (watchHub.hasSubscribers()) {
+          watchHub.heartbeat()
+        }
+      }
+      val telemetry = this@Daemon.telemetry
+      if (telemetry != null) {
+        // appends happen on the hardware thread, so does the flush
+        loop.selectorEventLoop.period(TELEMETRY_FORCE_MILLIS) {
+          worker.submit { telemetry.force() }.whenComplete { _, t ->
+            if (t != null) {
+              Utils.error("failed to flush telemetry: $t")
+            }
+          }
+        }
+      }
       server.start()
     }
   }
 
-  private fun restartTimer() {
-    if (::periodicEvent.isInitialized) {
-      periodicEvent.cancel()
+  // must be called on the event loop
+  private fun restartSampler() {
+    sampleTimer?.cancel()
+    sampleTimer = null
+    ++sampleGeneration
+    sampler.setCapacity(config.sampleCapacity)
+    scheduleSample(sampleGeneration)
+  }
+
+  // must be called on the event loop
+  private fun scheduleSample(generation: Long) {
+    if (generation != sampleGeneration || config.sampleInterval <= 0) {
+      return
+    }
+    sampleTimer = loop.selectorEventLoop.delay(config.sampleInterval) { sample(generation) }
+  }
+
+  // must be called on the event loop
+  private fun sample(generation: Long) {
+    val args = this.args
+    val pl1 = args?.pl1?.toFloat() ?: Float.NaN
+    val pl2 = args?.pl2?.toFloat() ?: Float.NaN
+    // the drift is only considered recorded after a record is written,
+    // the first sample and failed samples do not write anything
+    val driftSeen = driftCount
+    val drift = driftSeen != driftRecorded
+    worker.submit {
+      val counter = platform.readEnergyCounter()
+      val watts = sampler.record(counter, System.nanoTime())
+      if (watts >= 0) {
+        val ts = System.currentTimeMillis()
+        telemetry?.append(ts, watts, pl1, pl2, drift)
+        loop.selectorEventLoop.runOnLoop {
+          driftRecorded = driftSeen
+          if (watchHub.hasSubscribers()) {
+            watchHub.publish(WatchHub.TELEMETRY, ObjectBuilder().put("timestamp", ts).put("watts", watts).build())
+          }
+        }
+      }
+    }.whenComplete { _, t ->
+      if (t is UnsupportedOperationException) {
+        Utils.warn("power sampling is not supported on current platform")
+        return@whenComplete
+      }
+      if (t != null) {
+        Utils.error("failed to sample power: $t")
+      }
+      loop.selectorEventLoop.runOnLoop { scheduleSample(generation) }
+    }
+  }
+
+  // must be called on the event loop
+  private fun restartGovernor() {
+    governorTimer?.cancel()
+    governorTimer = null
+    ++governorGeneration
+    governor.reset()
+    if (!config.governor) {
+      if (governorLimits != null) {
+        governorLimits = null
+        requestEnforce() // restore the desired pl1 and pl2
+      }
+      return
+    }
+    Utils.info("governor is enabled: pl1 [${config.governorPl1Floor}, ${config.governorPl1Ceiling}], pl2 [${config.governorPl2Floor}, ${config.governorPl2Ceiling}]")
+    scheduleGovernor(governorGeneration)
+  }
+
+  // must be called on the event loop
+  private fun scheduleGovernor(generation: Long) {
+    if (generation != governorGeneration || !config.governor) {
+      return
+    }
+    governorTimer = loop.selectorEventLoop.delay(config.governorInterval) { governorTick(generation) }
+  }
+
+  // must be called on the event loop
+  private fun governorTick(generation: Long) {
+    worker.submit {
+      var probe = loadProbe
+      if (probe == null) {
+        probe = CpuLoadProbe()
+        loadProbe = probe
+      }
+      probe.sample()
+    }.whenComplete { load, t ->
+      loop.selectorEventLoop.runOnLoop {
+        if (generation != governorGeneration) {
+          return@runOnLoop
+        }
+        if (t != null) {
+          Utils.error("failed to sample cpu load: $t")
+        } else {
+          val decision = governor.update(load[0], load[1])
+          if (decision.changed) {
+            applyGovernorDecision(decision)
+          }
+        }
+        scheduleGovernor(generation)
+      }
+    }
+  }
+
+  // must be called on the event loop
+  private fun applyGovernorDecision(decision: Governor.Decision) {
+    Utils.info("governor: load ${"%.2f".format(decision.smoothedLoad)}, pl1 ${decision.pl1}, pl2 ${decision.pl2}")
+    governorLimits = decision
+    requestEnforce()
+  }
+
+  // must be called on the event loop
+  private fun restartThermal() {
+    thermalTimer?.cancel()
+    thermalTimer = null
+    ++thermalGeneration
+    thermal.reset()
+    thermalFailures = 0
+    if (!config.thermal) {
+      if (thermalCap != null) {
+        thermalCap = null
+        requestEnforce() // restore the desired pl1
+      }
+      return
+    }
+    val generation = thermalGeneration
+    worker.submit { platform.supportsThermal() }.whenComplete { supported, t ->
+      loop.selectorEventLoop.runOnLoop {
+        if (generation != thermalGeneration) {
+          return@runOnLoop
+        }
+        if (t != null) {
+          Utils.error("failed to check package temperature support, the thermal controller is not started: $t")
+          return@runOnLoop
+        }
+        if (!supported) {
+          Utils.error("package temperature is not supported on current platform, the thermal controller is not started")
+          return@runOnLoop
+        }
+        Utils.info("thermal controller is enabled: target ${config.thermalTarget}, pl1 [${config.thermalPl1Floor}, ${config.thermalPl1Ceiling}]")
+        scheduleThermal(generation)
+      }
+    }
+  }
+
+  // must be called on the event loop
+  private fun scheduleThermal(generation: Long) {
+    if (generation != thermalGeneration || !config.thermal) {
+      return
+    }
+    thermalTimer = loop.selectorEventLoop.delay(config.thermalInterval) { thermalTick(generation) }
+  }
+
+  // must be called on the event loop
+  private fun thermalTick(generation: Long) {
+    worker.submit { platform.readPackageTemperature() }.whenComplete { temperature, t ->
+      loop.selectorEventLoop.runOnLoop {
+        if (generation != thermalGeneration) {
+          return@runOnLoop
+        }
+        if (t != null) {
+          thermalReadFailed(t)
+        } else {
+          if (thermalFailures > 0) {
+            Utils.info("package temperature is readable again after $thermalFailures failure(s)")
+            thermalFailures = 0
+          }
+          val upper = governorLimits?.pl1 ?: args?.pl1 ?: config.thermalPl1Ceiling
+          val decision = thermal.update(temperature, System.nanoTime(), upper)
+          if (decision.changed) {
+            Utils.info("thermal controller: temperature ${decision.temperature}, pl1 cap ${decision.cap}")
+            thermalCap = decision.cap
+            requestEnforce()
+          }
+        }
+        scheduleThermal(generation)
+      }
+    }
+  }
+
+  // must be called on the event loop
+  // the error is logged on the first failure and then at most once per THERMAL_FAILURE_LOG_MILLIS,
+  // the cap is released after THERMAL_MAX_FAILURES failures in a row, so a lost sensor doesn't keep pl1 pinned
+  private fun thermalReadFailed(t: Throwable) {
+    ++thermalFailures
+    val now = System.currentTimeMillis()
+    if (thermalFailures == 1 || now - thermalFailureLogged >= THERMAL_FAILURE_LOG_MILLIS) {
+      thermalFailureLogged = now
+      Utils.error("failed to read package temperature ($thermalFailures consecutive failure(s)): $t")
+    }
+    if (thermalFailures == THERMAL_MAX_FAILURES) {
+      thermal.reset()
+      if (thermalCap != null) {
+        Utils.warn("thermal controller: releasing pl1 cap $thermalCap after $thermalFailures consecutive read failures")
+        thermalCap = null
+        requestEnforce() // restore the desired pl1
+      }
+    }
+  }
+
+  // must be called on the event loop
+  // controllers call this instead of restartTimer(), steps which arrive while an update is in flight
+  // are merged into one update issued after it completes, so writes never queue up on the hardware thread
+  private fun requestEnforce() {
+    if (enforceInFlight) {
+      enforcePending = true
+      return
     }
-    periodicEvent = loop.selectorEventLoop.period(config.interval * 1000) { intervalUpdate() }
-    intervalUpdate() // execute now
+    enforceInFlight = true
+    restartTimer().whenComplete { _, _ ->
+      loop.selectorEventLoop.runOnLoop {
+        enforceInFlight = false
+        if (enforcePending) {
+          enforcePending = false
+          requestEnforce()
+        }
+      }
+    }
+  }
+
+  // must be called on the event loop
+  private fun restartTimer(): CompletableFuture<Boolean> {
+    timer?.cancel()
+    timer = null
+    ++timerGeneration
+    currentInterval = config.fastIntervalMillis()
+    return intervalUpdate(restart = true) // execute now
+  }
+
+  // must be called on the event loop
+  private fun scheduleNextUpdate(generation: Long, drift: Boolean) {
+    if (generation != timerGeneration) {
+      return // the timer is restarted
+    }
+    currentInterval = if (drift) {
+      config.fastIntervalMillis()
+    } else {
+      min(currentInterval * 2, config.maxIntervalMillis())
+    }
+    Utils.debug("next interval update in $currentInterval ms")
+    timer = loop.selectorEventLoop.delay(currentInterval) { intervalUpdate() }
   }
 
-  private fun intervalUpdate() {
+  // must be called on the event loop
+  private fun intervalUpdate(restart: Boolean = false): CompletableFuture<Boolean> {
     Utils.debug("interval update enters")
-    val args = this.args ?: return
+    val args = this.args
+    val limits = governorLimits
+    val cap = thermalCap
+    if (args == null && limits == null && cap == null) {
+      return CompletableFuture.completedFuture(false)
+    }
     Utils.debug("interval update executes")
-    val modified = platform.updatePowerLimit(args)
-    if (modified) {
-      Utils.info("power limit is reset by interval updating: ${args.plFieldsToString()}")
+    // the hardware thread works on a snapshot, this.args is only modified on the event loop
+    // and the controllers are applied on top of it, so the desired args are never overwritten
+    val snapshot = Args()
+    if (args != null) {
+      snapshot.from(args)
+    }
+    if (limits != null) {
+      snapshot.pl1 = limits.pl1
+      snapshot.pl2 = limits.pl2
+    }
+    if (cap != null) {
+      snapshot.pl1 = min(snapshot.pl1 ?: cap, cap)
+    }
+    val generation = timerGeneration
+    val future = worker.submit { updatePowerLimit(snapshot) }
+    future.whenComplete { modified, t ->
+      metrics.enforcements.increment()
+      if (t != null) {
+        metrics.enforcementFailures.increment()
+        Utils.error("failed to update power limit: $t")
+      } else if (modified) {
+        metrics.rewrites.increment()
+        readCache.invalidate()
+        Utils.info("power limit is reset by interval updating: ${snapshot.plFieldsToString()}")
+      }
+      loop.selectorEventLoop.runOnLoop {
+        if (t == null) {
+          lastEnforced = snapshot
+        }
+        if (!restart && t == null && modified) {
+          ++driftCount
+          watchHub.publish(WatchHub.DRIFT, ObjectBuilder().putInst("desired", PowerLimitArgs.formatToJson(snapshot)).build())
+        }
+        if (t == null && modified) {
+          watchHub.publish(WatchHub.REWRITE, ObjectBuilder()
+            .put("reason", if (restart) "update" else "drift")
+            .putInst("applied", PowerLimitArgs.formatToJson(snapshot))
+            .build())
+        }
+        scheduleNextUpdate(generation, t != null || modified)
+      }
+    }
+    return future
+  }
+
+  // must be called on the hardware thread
+  private fun updatePowerLimit(args: Args): Boolean {
+    if (platform !is IntelPlatform) {
+      return platform.updatePowerLimit(args)
+    }
+    val result = platform.transaction(args)
+    metrics.recordUpdateResult(result)
+    if (result.powerLimit != null) {
+      enforcedRead = PowerLimitCache.Sample(result.powerLimit, System.currentTimeMillis())
     }
+    if (result.isFailed) {
+      Utils.warn("power limit is not fully applied: msr ${result.msr}, mmio ${result.mmio}")
+    }
+    return result.isModified
   }
 
   fun setArgs(args: Args) {
-    Utils.info("power limit update: ${args.plFieldsToString()}")
-    if (this.args == null) {
-      this.args = args
-    } else {
-      this.args!!.from(args)
+    loop.selectorEventLoop.runOnLoop {
+      Utils.info("power limit update: ${args.plFieldsToString()}")
+      if (this.args == null) {
+        this.args = args
+      } else {
+        this.args!!.from(args)
+      }
+      pendingArgs?.from(args) // not to be reverted when the debounce window fires
+      publishArgs("cli")
+      stateStore?.save(this.args)
+      restartTimer()
+    }
+  }
+
+  /**
+   * Take the args which are already applied before the daemon starts, the enforcement continues from the next interval
+   * instead of writing them again.
+   *
+   * @param result the result of the apply, null if the platform does not report it
+   */
+  fun seedArgs(args: Args, result: UpdateResult?) {
+    loop.selectorEventLoop.runOnLoop {
+      Utils.info("power limit is applied on start: ${args.plFieldsToString()}")
+      if (this.args == null) {
+        this.args = args
+      } else {
+        this.args!!.from(args)
+      }
+      publishArgs("cli")
+      stateStore?.save(this.args)
+      metrics.enforcements.increment()
+      if (result != null) {
+        metrics.recordUpdateResult(result)
+        if (result.powerLimit != null) {
+          enforcedRead = PowerLimitCache.Sample(result.powerLimit, System.currentTimeMillis())
+        }
+      }
+      val snapshot = Args()
+      snapshot.from(this.args!!)
+      lastEnforced = snapshot
+      timer?.cancel()
+      ++timerGeneration
+      currentInterval = config.fastIntervalMillis()
+      timer = loop.selectorEventLoop.delay(currentInterval) { intervalUpdate() }
     }
-    platform.updatePowerLimit(args)
-    restartTimer()
+  }
+
+  // must be called on the event loop
+  private fun publishArgs(source: String) {
+    val args = this.args ?: return
+    watchHub.publish(WatchHub.ARGS, ObjectBuilder().put("source", source).putInst("args", PowerLimitArgs.formatToJson(args)).build())
   }
 
   private fun accessLog(ctx: RoutingContext) {
@@ -95,32 +564,221 @@ class Daemon(private val ipport: IPPort, private val platform: Platform, private
         return
       }
     }
-    val res = when (mode) {
+    val sample = readCache.get(mode ?: "", config.readCacheTTL) {
+      worker.submit { readPowerLimit(mode) }
+    }.awaitOnLoop()
+    if (mode.isNullOrEmpty() && sample.timestamp >= (lastRead?.timestamp ?: Long.MIN_VALUE)) {
+      lastRead = sample
+    }
+    val age = sample.age()
+    ctx.conn.response(200)
+      .header("Age", "${age / 1000}")
+      .header("X-Sample-Age-Millis", "$age")
+      .send(sample.powerLimit.formatToJson())
+  }
+
+  private suspend fun getPower(ctx: RoutingContext) {
+    val samplesStr = ctx.req.query()["samples"]
+    val samples = if (samplesStr.isNullOrEmpty()) 60 else samplesStr.toIntOrNull()
+    if (samples == null || samples < 0) {
+      ctx.conn.response(400).send(ObjectBuilder().put("code", 400).put("message", "invalid samples").build())
+      return
+    }
+    val windowStr = ctx.req.query()["window"]
+    val windows = (if (windowStr.isNullOrEmpty()) "10,60,300" else windowStr).split(",").map { it.trim().toIntOrNull() }
+    if (windows.any { it == null || it <= 0 }) {
+      ctx.conn.response(400).send(ObjectBuilder().put("code", 400).put("message", "invalid window").build())
+      return
+    }
+    ctx.conn.response(200).send(sampler.formatToJson(samples, windows.map { it!! }.toIntArray()))
+  }
+
+  private suspend fun getHistory(ctx: RoutingContext) {
+    val telemetry = this.telemetry
+    if (telemetry == null) {
+      ctx.conn.response(400).send(ObjectBuilder().put("code", 400).put("message", "history is disabled").build())
+      return
+    }
+    val resolutionStr = ctx.req.query()["resolution"]
+    val resolution = if (resolutionStr.isNullOrEmpty()) Resolution.minute else Resolution.fromText(resolutionStr)
+    if (resolution == null) {
+      ctx.conn.response(400).send(ObjectBuilder().put("code", 400).put("message", "invalid resolution").build())
+      return
+    }
+    val now = System.currentTimeMillis()
+    val from = ctx.req.query()["from"].let { if (it.isNullOrEmpty()) now - 3600_000 else it.toLongOrNull() }
+    val to = ctx.req.query()["to"].let { if (it.isNullOrEmpty()) now else it.toLongOrNull() }
+    val limit = ctx.req.query()["limit"].let { if (it.isNullOrEmpty()) 1000 else it.toIntOrNull() }
+    if (from == null || to == null || limit == null || limit < 0) {
+      ctx.conn.response(400).send(ObjectBuilder().put("code", 400).put("message", "invalid from, to or limit").build())
+      return
+    }
+    val records = ArrayBuilder()
+    telemetry.query(resolution, from, to, limit) { ts, watts, pl1, pl2, drift ->
+      val o = ObjectBuilder().put("timestamp", ts).put("watts", watts)
+      if (!pl1.isNaN()) o.put("pl1", pl1.toDouble())
+      if (!pl2.isNaN()) o.put("pl2", pl2.toDouble())
+      records.addInst(o.put("drift", drift).build())
+    }
+    ctx.conn.response(200).send(ObjectBuilder().put("resolution", resolution.text).putInst("records", records.build()).build())
+  }
+
+  // must be called on the event loop
+  // the enforcement reads the registers on every tick, GET power_limit is only a fallback,
+  // e.g. on platforms which do not report the registers from the update
+  private fun latestPowerLimit(): PowerLimitCache.Sample? {
+    val enforced = enforcedRead
+    val read = lastRead
+    if (enforced == null || (read != null && read.timestamp > enforced.timestamp)) {
+      return read
+    }
+    return enforced
+  }
+
+  // scrapes never touch the hardware, so they cannot queue up behind or delay the enforcement
+  private suspend fun getMetrics(ctx: RoutingContext) {
+    ctx.conn.response(200)
+      .header("Content-Type", "text/plain; version=0.0.4; charset=utf-8")
+      .send(metrics.formatToPrometheus(latestPowerLimit(), lastEnforced, ProcessExecutor.getDefault().stats))
+  }
+
+  private fun readPowerLimit(mode: String?): PowerLimit {
+    return when (mode) {
       "msr" -> (platform as IntelPlatform).msrPowerLimit
       "mmio" -> (platform as IntelPlatform).mmioPowerLimit
       else -> platform.powerLimit
     }
-    ctx.conn.response(200).send(res.formatToJson())
+  }
+
+  private suspend fun <T> CompletableFuture<T>.awaitOnLoop(): T = suspendCoroutine { cont ->
+    this.whenComplete { v, t ->
+      loop.selectorEventLoop.runOnLoop {
+        if (t == null) {
+          cont.resume(v)
+        } else {
+          cont.resumeWithException(if (t is CompletionException && t.cause != null) t.cause!! else t)
+        }
+      }
+    }
   }
 
   private suspend fun setPowerLimit(ctx: RoutingContext) {
     val body = ctx.req.body().toString()
     val pl = JSON.deserialize(body, PowerLimitArgs.rule)
-    var needToAssign = false
-    val args = if (this.args == null) {
-      needToAssign = true
-      Args()
-    } else this.args
+    // validate on a copy, so that an invalid request does not partially modify the desired state
+    // requests within the debounce window build on each other, the changes are kept in pendingArgs
+    // until the window fires, so that an interval update never writes a part of them
+    val current = pendingArgs ?: this.args
+    val args = Args()
+    if (current != null) {
+      args.from(current)
+    }
     val err = pl.checkAndAssignToArgs(args)
     if (err != null) {
       ctx.conn.response(400).send(ObjectBuilder().put("code", 400).put("message", err).build())
       return
     }
-    if (needToAssign) {
-      this.args = args
+    if (current != null && current.plFieldsEquals(args)) {
+      // the desired values may still be waiting in the debounce window or being written,
+      // answer after they are on the hardware, the same as the request which set them
+      lastApply?.awaitOnLoop()
+      ctx.conn.response(204).header("X-Update-Result", "noop").send()
+      return
+    }
+    pendingArgs = args
+    val (future, opened) = debounceApply()
+    future.awaitOnLoop()
+    ctx.conn.response(204).header("X-Update-Result", if (opened) "applied" else "merged").send()
+  }
+
+  // must be called on the event loop
+  // the first request opens a window of applyDebounce, requests within it are written by the same apply
+  // returns the future of the apply, and whether this call opened the window
+  private fun debounceApply(): Pair<CompletableFuture<Boolean>, Boolean> {
+    val pending = pendingApply
+    if (pending != null) {
+      return Pair(pending, false)
+    }
+    val future = CompletableFuture<Boolean>()
+    lastApply = future
+    future.whenComplete { _, _ ->
+      loop.selectorEventLoop.runOnLoop {
+        if (lastApply === future) {
+          lastApply = null
+        }
+      }
+    }
+    val fire = {
+      if (pendingApply === future) {
+        pendingApply = null
+      }
+      foldPendingArgs()
+      restartTimer().whenComplete { v, t ->
+        if (t != null) {
+          future.completeExceptionally(t)
+        } else {
+          future.complete(v)
+        }
+      }
+      Unit
+    }
+    if (config.applyDebounce <= 0) {
+      fire()
+    } else {
+      pendingApply = future
+      loop.selectorEventLoop.delay(config.applyDebounce) { fire() }
+    }
+    return Pair(future, true)
+  }
+
+  // must be called on the event loop
+  private fun foldPendingArgs() {
+    val pending = pendingArgs ?: return
+    pendingArgs = null
+    val args = this.args
+    if (args == null) {
+      this.args = pending
+    } else {
+      args.from(pending)
+    }
+    publishArgs("api")
+    stateStore?.save(this.args)
+  }
+
+  private suspend fun watch(ctx: RoutingContext) {
+    val withTelemetry = ctx.req.query()["telemetry"] == "true"
+    val stream = ctx.conn.response(200)
+      .header("Content-Type", "text/event-stream")
+      .header("Cache-Control", "no-cache")
+      .sendHeadersAndStartChunkedResponse()
+    var id = watchHub.next()
+    watchHub.subscribe()
+    try {
+      while (true) {
+        if (id == watchHub.next()) {
+          // resume on a later loop iteration, publishers never run subscriber writes
+          suspendCoroutine<Unit> { cont -> watchHub.await { loop.selectorEventLoop.runOnLoop { cont.resume(Unit) } } }
+          continue
+        }
+        val event = watchHub.get(id)
+        if (event == null) {
+          // the subscriber is too slow and the events are overwritten
+          val oldest = watchHub.oldest()
+          stream.sendChunk(WatchHub.lagged(oldest - id))
+          id = oldest
+          continue
+        }
+        ++id
+        if (event.type == WatchHub.TELEMETRY && !withTelemetry) {
+          continue
+        }
+        stream.sendChunk(event.bytes)
+      }
+    } catch (e: Exception) {
+      Utils.debug("watch subscriber is gone: $e")
+    } finally {
+      watchHub.unsubscribe()
     }
-    restartTimer()
-    ctx.conn.response(204).send()
   }
 
   private suspend fun getConfig(ctx: RoutingContext) {
@@ -129,15 +787,27 @@ class Daemon(private val ipport: IPPort, private val platform: Platform, private
 
   private suspend fun setConfig(ctx: RoutingContext) {
     val body = ctx.req.body().toString()
-    val config = JSON.deserialize(body, Config.rule)
-    if (config.interval != 0) {
-      if (config.interval < 0) {
-        ctx.conn.response(400).send(ObjectBuilder().put("code", 400).put("message", "cannot use negative interval").build())
-        return
-      }
-      this.config.interval = config.interval
+    val configArgs = JSON.deserialize(body, ConfigArgs.rule)
+    val err = configArgs.checkAndAssignToConfig(config)
+    if (err != null) {
+      ctx.conn.response(400).send(ObjectBuilder().put("code", 400).put("message", err).build())
+      return
+    }
+    stateStore?.recordConfig(configArgs)
+    stateStore?.save(args)
+    applyPlatformConfig()
+    if (configArgs.isTimerModified) {
       restartTimer()
     }
+    if (configArgs.isSamplerModified) {
+      restartSampler()
+    }
+    if (configArgs.isGovernorModified) {
+      restartGovernor()
+    }
+    if (configArgs.isThermalModified) {
+      restartThermal()
+    }
 
     ctx.conn.response(204).send()
   }
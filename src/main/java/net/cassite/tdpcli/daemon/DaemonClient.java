@@ -0,0 +1,186 @@
+package net.cassite.tdpcli.daemon;
+
+import io.vproxy.dep.vjson.JSON;
+import jdk.net.ExtendedSocketOptions;
+import net.cassite.tdpcli.Args;
+import net.cassite.tdpcli.EX;
+import net.cassite.tdpcli.PowerLimit;
+import net.cassite.tdpcli.util.Utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.UserPrincipal;
+
+/**
+ * Sends cli reads and writes to a running daemon through its unix domain socket.<br>
+ * Each request uses its own connection with `Connection: close`, so the response ends at eof.<br>
+ * Requests are only sent if the process listening on the socket belongs to root or the current user,
+ * otherwise anyone able to create the socket file could receive the requests and forge the responses.
+ */
+public class DaemonClient {
+    private final Path path;
+
+    public DaemonClient(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * @param mode null, msr or mmio
+     * @return null if no daemon is listening
+     */
+    public PowerLimit getPowerLimit(String mode) {
+        var uri = "/tdpcli/api/v1.0/power_limit";
+        if (mode != null) {
+            uri += "?mode=" + mode;
+        }
+        var body = request("GET", uri, null);
+        if (body == null) {
+            return null;
+        }
+        return JSON.deserialize(body, PowerLimit.rule);
+    }
+
+    /**
+     * @return false if no daemon is listening
+     */
+    public boolean setPowerLimit(Args args) {
+        var body = PowerLimitArgs.formatToJson(args).stringify();
+        return request("PUT", "/tdpcli/api/v1.0/power_limit", body) != null;
+    }
+
+    /**
+     * @return response body, or null if no daemon is listening
+     */
+    private String request(String method, String uri, String body) {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        SocketChannel ch;
+        try {
+            ch = SocketChannel.open(StandardProtocolFamily.UNIX);
+        } catch (IOException | UnsupportedOperationException e) {
+            Utils.debug("unix domain socket is not supported: " + e);
+            return null;
+        }
+        try (ch) {
+            try {
+                ch.connect(UnixDomainSocketAddress.of(path));
+            } catch (IOException e) {
+                Utils.debug("no daemon is listening on " + path + ": " + e);
+                return null;
+            }
+            if (!isTrusted(ch)) {
+                return null;
+            }
+            var bodyBytes = body == null ? new byte[0] : body.getBytes(StandardCharsets.UTF_8);
+            var head = method + " " + uri + " HTTP/1.1\r\n" +
+                "Host: tdpcli\r\n" +
+                "Connection: close\r\n" +
+                (body == null ? "" : "Content-Type: application/json\r\n") +
+                "Content-Length: " + bodyBytes.length + "\r\n" +
+                "\r\n";
+            var buf = ByteBuffer.allocate(head.length() + bodyBytes.length);
+            buf.put(head.getBytes(StandardCharsets.US_ASCII)).put(bodyBytes).flip();
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+
+            var out = new ByteArrayOutputStream();
+            var rbuf = ByteBuffer.allocate(16 * 1024);
+            while (ch.read(rbuf) != -1) {
+                out.write(rbuf.array(), 0, rbuf.position());
+                rbuf.clear();
+            }
+            return parseResponse(method + " " + uri, out.toString(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new EX("failed to request " + method + " " + uri + " to the daemon", e);
+        }
+    }
+
+    static String parseResponse(String req, String resp) {
+        int headEnd = resp.indexOf("\r\n\r\n");
+        int lineEnd = resp.indexOf("\r\n");
+        if (headEnd < 0 || !resp.startsWith("HTTP/1.")) {
+            throw new EX("invalid response for " + req + " from the daemon");
+        }
+        var statusLine = resp.substring(0, lineEnd).split(" ");
+        int status;
+        try {
+            status = Integer.parseInt(statusLine[1]);
+        } catch (RuntimeException e) {
+            throw new EX("invalid status line for " + req + " from the daemon: " + resp.substring(0, lineEnd));
+        }
+        boolean chunked = false;
+        for (var h : resp.substring(lineEnd + 2, headEnd).split("\r\n")) {
+            int colon = h.indexOf(':');
+            if (colon > 0 && h.substring(0, colon).trim().equalsIgnoreCase("transfer-encoding")
+                && h.substring(colon + 1).trim().equalsIgnoreCase("chunked")) {
+                chunked = true;
+            }
+        }
+        var body = resp.substring(headEnd + 4);
+        if (chunked) {
+            body = decodeChunked(body);
+        }
+        if (status >= 400) {
+            throw new EX("the daemon responded " + status + " for " + req + ": " + body);
+        }
+        return body;
+    }
+
+    private static String decodeChunked(String s) {
+        var sb = new StringBuilder();
+        int p = 0;
+        while (true) {
+            int lineEnd = s.indexOf("\r\n", p);
+            if (lineEnd < 0) {
+                throw new EX("invalid chunked body from the daemon");
+            }
+            var sizeStr = s.substring(p, lineEnd);
+            int semicolon = sizeStr.indexOf(';');
+            if (semicolon >= 0) {
+                sizeStr = sizeStr.substring(0, semicolon);
+            }
+            int size = Integer.parseInt(sizeStr.trim(), 16);
+            if (size == 0) {
+                return sb.toString();
+            }
+            // chunk sizes count bytes, the body only contains ascii json in practice
+            sb.append(s, lineEnd + 2, lineEnd + 2 + size);
+            p = lineEnd + 2 + size + 2;
+        }
+    }
+
+    private boolean isTrusted(SocketChannel ch) {
+        UserPrincipal owner;
+        try {
+            owner = ch.getOption(ExtendedSocketOptions.SO_PEERCRED).user();
+        } catch (UnsupportedOperationException e) {
+            // peer credentials are not available, e.g. on windows, the owner of the socket file is checked instead
+            try {
+                owner = Files.getOwner(path, LinkOption.NOFOLLOW_LINKS);
+            } catch (IOException ex) {
+                Utils.warn("failed to retrieve the owner of " + path + ", the daemon is not used: " + ex);
+                return false;
+            }
+        } catch (IOException e) {
+            Utils.warn("failed to retrieve the peer of " + path + ", the daemon is not used: " + e);
+            return false;
+        }
+        var name = owner.getName();
+        name = name.substring(name.lastIndexOf('\\') + 1); // names on windows are in the form of DOMAIN\name
+        if (name.equals("root") || name.equals("Administrators") || name.equals(System.getProperty("user.name"))) {
+            return true;
+        }
+        Utils.warn(path + " is served by " + owner.getName() + ", which is neither root nor the current user, the daemon is not used");
+        return false;
+    }
+}
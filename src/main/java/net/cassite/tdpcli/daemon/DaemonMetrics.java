@@ -0,0 +1,133 @@
+package net.cassite.tdpcli.daemon;
+
+import net.cassite.tdpcli.Args;
+import net.cassite.tdpcli.DirectBatch;
+import net.cassite.tdpcli.RWBatch;
+import net.cassite.tdpcli.UpdateResult;
+import net.cassite.tdpcli.exec.ExecStats;
+import net.cassite.tdpcli.util.Histogram;
+import net.cassite.tdpcli.util.MetricsBuilder;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the daemon, exposed in the Prometheus text format.<br>
+ * Recording is lock-free, formatting only sums up the counters.
+ * The hardware is never accessed for metrics, power limits are reported from the state of the daemon.
+ */
+public class DaemonMetrics {
+    public final LongAdder enforcements = new LongAdder();
+    public final LongAdder rewrites = new LongAdder();
+    public final LongAdder enforcementFailures = new LongAdder();
+    private final LongAdder[] msrOutcomes = newOutcomeCounters();
+    private final LongAdder[] mmioOutcomes = newOutcomeCounters();
+    private final Map<String, Histogram> http = new ConcurrentHashMap<>();
+
+    private static LongAdder[] newOutcomeCounters() {
+        var ret = new LongAdder[UpdateResult.Outcome.values().length];
+        for (int i = 0; i < ret.length; ++i) {
+            ret[i] = new LongAdder();
+        }
+        return ret;
+    }
+
+    public void recordUpdateResult(UpdateResult result) {
+        msrOutcomes[result.msr.ordinal()].increment();
+        mmioOutcomes[result.mmio.ordinal()].increment();
+    }
+
+    /**
+     * Routes should be registered when the server is being initialized,
+     * the returned histogram is supposed to be held by the caller.
+     */
+    public Histogram route(String method, String route) {
+        return http.computeIfAbsent(method + " " + route, k -> new Histogram());
+    }
+
+    /**
+     * @param lastRead the latest power limit read from the hardware, by the enforcement or an api call, null if not available
+     * @param enforced the latest power limit written or verified by the enforcement, null if not available
+     * @param exec     exec stats of RW-Everything, keyed by command type
+     */
+    public String formatToPrometheus(PowerLimitCache.Sample lastRead, Args enforced, Map<String, ExecStats> exec) {
+        var m = new MetricsBuilder();
+        if (lastRead != null) {
+            var powerLimit = lastRead.powerLimit;
+            m.describe("tdpcli_power_limit_age_seconds", "gauge", "Time since the reported power limit was read.");
+            m.sample("tdpcli_power_limit_age_seconds", lastRead.age() / 1000.0);
+            m.describe("tdpcli_power_limit_locked", "gauge", "Whether the power limit register is locked.");
+            m.sample("tdpcli_power_limit_locked", powerLimit.locked ? 1 : 0);
+            m.describe("tdpcli_power_limit_enabled", "gauge", "Whether the power limit is enabled.");
+            m.sample("tdpcli_power_limit_enabled", powerLimit.pl1.enabled ? 1 : 0, "limit", "pl1");
+            m.sample("tdpcli_power_limit_enabled", powerLimit.pl2.enabled ? 1 : 0, "limit", "pl2");
+            m.describe("tdpcli_power_limit_watts", "gauge", "Current power limit.");
+            m.sample("tdpcli_power_limit_watts", powerLimit.pl1.power, "limit", "pl1");
+            m.sample("tdpcli_power_limit_watts", powerLimit.pl2.power, "limit", "pl2");
+            m.describe("tdpcli_power_limit_time_seconds", "gauge", "Current time window of the power limit.");
+            m.sample("tdpcli_power_limit_time_seconds", powerLimit.pl1.time, "limit", "pl1");
+            m.sample("tdpcli_power_limit_time_seconds", powerLimit.pl2.time, "limit", "pl2");
+        }
+        if (enforced != null && (enforced.pl1 != null || enforced.pl2 != null)) {
+            m.describe("tdpcli_enforced_power_limit_watts", "gauge", "Power limit of the latest enforcement.");
+            if (enforced.pl1 != null) {
+                m.sample("tdpcli_enforced_power_limit_watts", enforced.pl1, "limit", "pl1");
+            }
+            if (enforced.pl2 != null) {
+                m.sample("tdpcli_enforced_power_limit_watts", enforced.pl2, "limit", "pl2");
+            }
+        }
+
+        m.describe("tdpcli_enforcements_total", "counter", "Interval enforcements of the desired power limit.");
+        m.sample("tdpcli_enforcements_total", enforcements.sum());
+        m.describe("tdpcli_enforcement_rewrites_total", "counter", "Interval enforcements which actually rewrote registers.");
+        m.sample("tdpcli_enforcement_rewrites_total", rewrites.sum());
+        m.describe("tdpcli_enforcement_failures_total", "counter", "Interval enforcements which failed.");
+        m.sample("tdpcli_enforcement_failures_total", enforcementFailures.sum());
+
+        m.describe("tdpcli_update_outcomes_total", "counter", "Outcomes of power limit updates for each register copy.");
+        for (var outcome : UpdateResult.Outcome.values()) {
+            m.sample("tdpcli_update_outcomes_total", msrOutcomes[outcome.ordinal()].sum(), "copy", "msr", "outcome", outcome.name());
+        }
+        for (var outcome : UpdateResult.Outcome.values()) {
+            m.sample("tdpcli_update_outcomes_total", mmioOutcomes[outcome.ordinal()].sum(), "copy", "mmio", "outcome", outcome.name());
+        }
+
+        m.describe("tdpcli_hw_op_duration_seconds", "histogram", "Latency of hardware operations.");
+        for (var e : new TreeMap<>(DirectBatch.getLatency()).entrySet()) {
+            if (e.getValue().getCount() != 0) {
+                m.histogram("tdpcli_hw_op_duration_seconds", e.getValue(), "op", e.getKey(), "backend", "direct");
+            }
+        }
+        for (var e : new TreeMap<>(RWBatch.getLatency()).entrySet()) {
+            if (e.getValue().getCount() != 0) {
+                m.histogram("tdpcli_hw_op_duration_seconds", e.getValue(), "op", e.getKey(), "backend", "rw");
+            }
+        }
+        // one process runs a whole batch, SCRIPT is a batch of more than one command
+        var sortedExec = new TreeMap<>(exec);
+        m.describe("tdpcli_exec_duration_seconds", "histogram", "Latency of external command processes, by batch tag.");
+        for (var e : sortedExec.entrySet()) {
+            m.histogram("tdpcli_exec_duration_seconds", e.getValue().getLatency(), "op", e.getKey());
+        }
+        m.describe("tdpcli_exec_failures_total", "counter", "Failed executions of external commands.");
+        for (var e : sortedExec.entrySet()) {
+            m.sample("tdpcli_exec_failures_total", e.getValue().getFailures(), "op", e.getKey());
+        }
+        m.describe("tdpcli_exec_timeouts_total", "counter", "Timed out executions of external commands.");
+        for (var e : sortedExec.entrySet()) {
+            m.sample("tdpcli_exec_timeouts_total", e.getValue().getTimeouts(), "op", e.getKey());
+        }
+
+        m.describe("tdpcli_http_request_duration_seconds", "histogram", "Latency of http requests.");
+        for (var e : new TreeMap<>(http).entrySet()) {
+            var key = e.getKey();
+            int idx = key.indexOf(' ');
+            m.histogram("tdpcli_http_request_duration_seconds", e.getValue(),
+                "method", key.substring(0, idx), "route", key.substring(idx + 1));
+        }
+        return m.toString();
+    }
+}
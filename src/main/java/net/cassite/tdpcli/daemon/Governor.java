@@ -0,0 +1,131 @@
+package net.cassite.tdpcli.daemon;
+
+import io.vproxy.dep.vjson.JSON;
+import io.vproxy.dep.vjson.util.ArrayBuilder;
+import io.vproxy.dep.vjson.util.ObjectBuilder;
+
+import java.util.ArrayDeque;
+
+/**
+ * Maps cpu load to pl1/pl2 between the configured floor and ceiling.<br>
+ * The load of one sample is the max of the utilization and the normalized run queue, it's smoothed with EWMA,
+ * and the target is linearly interpolated between floor and ceiling.
+ * A new target is only proposed when it differs from the current one by at least the hysteresis,
+ * or when it reaches the floor or the ceiling.<br>
+ * Not thread safe, must be used on the event loop.
+ */
+public class Governor {
+    private static final int HISTORY = 32;
+
+    public static final class Decision {
+        public final long timestamp;
+        public final double utilization;
+        public final double runQueue; // negative if not available
+        public final double smoothedLoad;
+        public final double pl1;
+        public final double pl2;
+        public final boolean changed;
+
+        Decision(long timestamp, double utilization, double runQueue, double smoothedLoad, double pl1, double pl2, boolean changed) {
+            this.timestamp = timestamp;
+            this.utilization = utilization;
+            this.runQueue = runQueue;
+            this.smoothedLoad = smoothedLoad;
+            this.pl1 = pl1;
+            this.pl2 = pl2;
+            this.changed = changed;
+        }
+
+        public JSON.Object formatToJson() {
+            return new ObjectBuilder()
+                .put("timestamp", timestamp)
+                .put("utilization", utilization)
+                .put("runQueue", runQueue)
+                .put("smoothedLoad", smoothedLoad)
+                .put("pl1", pl1)
+                .put("pl2", pl2)
+                .put("changed", changed)
+                .build();
+        }
+    }
+
+    private final Config config;
+    private double smoothedLoad = -1;
+    private double pl1 = -1;
+    private double pl2 = -1;
+    private Decision last;
+    private final ArrayDeque<Decision> changes = new ArrayDeque<>(HISTORY);
+
+    public Governor(Config config) {
+        this.config = config;
+    }
+
+    /**
+     * Forget the smoothed load and the current limits, the next update always proposes a change.
+     */
+    public void reset() {
+        smoothedLoad = -1;
+        pl1 = -1;
+        pl2 = -1;
+    }
+
+    public Decision update(double utilization, double runQueue) {
+        double load = utilization;
+        if (runQueue >= 0) {
+            load = Math.max(load, Math.min(1, runQueue));
+        }
+        if (smoothedLoad < 0) {
+            smoothedLoad = load;
+        } else {
+            smoothedLoad = config.governorSmoothing * load + (1 - config.governorSmoothing) * smoothedLoad;
+        }
+
+        double targetPL1 = target(config.governorPl1Floor, config.governorPl1Ceiling);
+        double targetPL2 = target(config.governorPl2Floor, config.governorPl2Ceiling);
+        boolean changed = shouldChange(pl1, targetPL1, config.governorPl1Floor, config.governorPl1Ceiling)
+            || shouldChange(pl2, targetPL2, config.governorPl2Floor, config.governorPl2Ceiling);
+        if (changed) {
+            pl1 = targetPL1;
+            pl2 = targetPL2;
+        }
+        last = new Decision(System.currentTimeMillis(), utilization, runQueue, smoothedLoad, pl1, pl2, changed);
+        if (changed) {
+            if (changes.size() == HISTORY) {
+                changes.removeFirst();
+            }
+            changes.addLast(last);
+        }
+        return last;
+    }
+
+    private double target(double floor, double ceiling) {
+        // whole watts are enough for the governor, and keep the logs readable
+        return Math.round(floor + smoothedLoad * (ceiling - floor));
+    }
+
+    private boolean shouldChange(double current, double target, double floor, double ceiling) {
+        if (current < 0) {
+            return true;
+        }
+        if (current == target) {
+            return false;
+        }
+        if (target <= floor || target >= ceiling) {
+            return true;
+        }
+        return Math.abs(target - current) >= config.governorHysteresis;
+    }
+
+    public JSON.Object formatToJson() {
+        var arr = new ArrayBuilder();
+        for (var d : changes) {
+            arr.addInst(d.formatToJson());
+        }
+        var ob = new ObjectBuilder()
+            .put("enabled", config.governor);
+        if (last != null) {
+            ob.putInst("last", last.formatToJson());
+        }
+        return ob.putInst("changes", arr.build()).build();
+    }
+}
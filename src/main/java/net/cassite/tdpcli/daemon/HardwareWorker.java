@@ -0,0 +1,30 @@
+package net.cassite.tdpcli.daemon;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs blocking hardware operations one by one on a dedicated thread,
+ * so that the event loop is never blocked by them.
+ */
+public class HardwareWorker {
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        var t = new Thread(r, "hardware-thread");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        var future = new CompletableFuture<T>();
+        executor.execute(() -> {
+            try {
+                future.complete(task.call());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        return future;
+    }
+}
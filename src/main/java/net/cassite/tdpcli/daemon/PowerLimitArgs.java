@@ -1,9 +1,11 @@
 package net.cassite.tdpcli.daemon;
 
+import io.vproxy.dep.vjson.JSON;
 import io.vproxy.dep.vjson.deserializer.rule.BoolRule;
-import io.vproxy.dep.vjson.deserializer.rule.IntRule;
+import io.vproxy.dep.vjson.deserializer.rule.DoubleRule;
 import io.vproxy.dep.vjson.deserializer.rule.ObjectRule;
 import io.vproxy.dep.vjson.deserializer.rule.Rule;
+import io.vproxy.dep.vjson.util.ObjectBuilder;
 import net.cassite.tdpcli.Args;
 
 public class PowerLimitArgs {
@@ -12,15 +14,15 @@ public class PowerLimitArgs {
 
     public static final class Limit {
         public Boolean enabled;
-        public Integer power; // watts
+        public Double power; // watts
         public Boolean clamping;
-        public Integer time; // seconds
+        public Double time; // seconds
 
         public static final Rule<Limit> rule = new ObjectRule<>(Limit::new)
             .put("enabled", (o, b) -> o.enabled = b, BoolRule.get())
-            .put("power", (o, d) -> o.power = d, IntRule.get())
+            .put("power", (o, d) -> o.power = d, DoubleRule.get())
             .put("clamping", (o, b) -> o.clamping = b, BoolRule.get())
-            .put("time", (o, d) -> o.time = d, IntRule.get());
+            .put("time", (o, d) -> o.time = d, DoubleRule.get());
     }
 
     public static final Rule<PowerLimitArgs> rule = new ObjectRule<>(PowerLimitArgs::new)
@@ -29,14 +31,14 @@ public class PowerLimitArgs {
 
     public String checkAndAssignToArgs(Args args) {
         if (pl1.power != null) {
-            int pl1 = this.pl1.power;
+            double pl1 = this.pl1.power;
             if (pl1 < Args.MIN_ALLOWED_WATTS || pl1 > Args.MAX_ALLOWED_WATTS) {
                 return "pl1 out of range: [" + Args.MIN_ALLOWED_WATTS + ", " + Args.MAX_ALLOWED_WATTS + "]";
             }
             args.pl1 = pl1;
         }
         if (pl1.time != null) {
-            int time1 = this.pl1.time;
+            double time1 = this.pl1.time;
             if (time1 < Args.MIN_ALLOWED_SECONDS || time1 > Args.MAX_ALLOWED_SECONDS) {
                 return "time1 out of range: [" + Args.MIN_ALLOWED_SECONDS + ", " + Args.MAX_ALLOWED_SECONDS + "]";
             }
@@ -46,7 +48,7 @@ public class PowerLimitArgs {
             args.clamping1 = pl1.clamping;
         }
         if (pl2.power != null) {
-            int pl2 = this.pl2.power;
+            double pl2 = this.pl2.power;
             if (pl2 < Args.MIN_ALLOWED_WATTS || pl2 > Args.MAX_ALLOWED_WATTS) {
                 return "pl2 out of range: [" + Args.MIN_ALLOWED_WATTS + ", " + Args.MAX_ALLOWED_WATTS + "]";
             }
@@ -60,4 +62,34 @@ public class PowerLimitArgs {
         }
         return null;
     }
+
+    /**
+     * @return the set fields of args, in the same format as the request body
+     */
+    public static JSON.Object formatToJson(Args args) {
+        var pl1 = new ObjectBuilder();
+        if (args.pl1 != null) {
+            pl1.put("power", args.pl1);
+        }
+        if (args.time1 != null) {
+            pl1.put("time", args.time1);
+        }
+        if (args.clamping1 != null) {
+            pl1.put("clamping", args.clamping1);
+        }
+        var pl2 = new ObjectBuilder();
+        if (args.pl2 != null) {
+            pl2.put("power", args.pl2);
+        }
+        if (args.enable2 != null) {
+            pl2.put("enabled", args.enable2);
+        }
+        if (args.clamping2 != null) {
+            pl2.put("clamping", args.clamping2);
+        }
+        return new ObjectBuilder()
+            .putInst("pl1", pl1.build())
+            .putInst("pl2", pl2.build())
+            .build();
+    }
 }
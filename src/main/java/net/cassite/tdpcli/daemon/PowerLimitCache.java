@@ -0,0 +1,84 @@
+package net.cassite.tdpcli.daemon;
+
+import net.cassite.tdpcli.PowerLimit;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Caches power limit readings per mode.<br>
+ * Concurrent requests for the same mode share one in-flight read.
+ * Reads started before {@link #invalidate()} are not stored in the cache.
+ */
+public class PowerLimitCache {
+    public static final class Sample {
+        public final PowerLimit powerLimit;
+        public final long timestamp;
+
+        public Sample(PowerLimit powerLimit, long timestamp) {
+            this.powerLimit = powerLimit;
+            this.timestamp = timestamp;
+        }
+
+        public long age() {
+            return System.currentTimeMillis() - timestamp;
+        }
+    }
+
+    private final Map<String, Sample> samples = new HashMap<>();
+    private final Map<String, CompletableFuture<Sample>> inflight = new HashMap<>();
+    private long generation = 0;
+
+    /**
+     * @param mode   the cache key
+     * @param ttl    milliseconds, a cached sample older than this is not used
+     * @param loader starts the hardware read
+     */
+    public synchronized CompletableFuture<Sample> get(String mode, int ttl, Supplier<CompletableFuture<PowerLimit>> loader) {
+        var sample = samples.get(mode);
+        if (sample != null && sample.age() < ttl) {
+            return CompletableFuture.completedFuture(sample);
+        }
+        var future = inflight.get(mode);
+        if (future != null) {
+            return future;
+        }
+        long gen = generation;
+        var result = new CompletableFuture<Sample>();
+        inflight.put(mode, result);
+        CompletableFuture<PowerLimit> load;
+        try {
+            load = loader.get();
+        } catch (Throwable t) {
+            load = CompletableFuture.failedFuture(t);
+        }
+        load.whenComplete((pl, t) -> {
+            Sample s = null;
+            synchronized (this) {
+                if (inflight.get(mode) == result) {
+                    inflight.remove(mode);
+                }
+                if (t == null) {
+                    s = new Sample(pl, System.currentTimeMillis());
+                    if (gen == generation) {
+                        samples.put(mode, s);
+                    }
+                }
+            }
+            if (t == null) {
+                result.complete(s);
+            } else {
+                result.completeExceptionally(t);
+            }
+        });
+        return result;
+    }
+
+    public synchronized void invalidate() {
+        ++generation;
+        samples.clear();
+        inflight.clear();
+    }
+}
@@ -0,0 +1,105 @@
+package net.cassite.tdpcli.daemon;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size ring buffer of power samples, stored in primitive arrays.
+ */
+public class PowerRing {
+    private final long[] timestamps; // millis
+    private final double[] watts;
+    private final double[] scratch;
+    private int next = 0;
+    private int size = 0;
+
+    public static final class Stats {
+        public int count;
+        public double min;
+        public double avg;
+        public double max;
+        public double p99;
+    }
+
+    public PowerRing(int capacity) {
+        this.timestamps = new long[capacity];
+        this.watts = new double[capacity];
+        this.scratch = new double[capacity];
+    }
+
+    public int capacity() {
+        return watts.length;
+    }
+
+    public synchronized void add(long timestamp, double w) {
+        timestamps[next] = timestamp;
+        watts[next] = w;
+        next = (next + 1) % watts.length;
+        if (size < watts.length) {
+            ++size;
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private int indexOfRecent(int i) {
+        // i = 0 is the latest sample
+        int idx = next - 1 - i;
+        if (idx < 0) {
+            idx += watts.length;
+        }
+        return idx;
+    }
+
+    /**
+     * Copy the latest n samples into the arrays, from old to new.
+     *
+     * @return the number of samples copied
+     */
+    public synchronized int recent(int n, long[] timestampsOut, double[] wattsOut) {
+        n = Math.min(Math.min(n, size), Math.min(timestampsOut.length, wattsOut.length));
+        for (int i = 0; i < n; ++i) {
+            int idx = indexOfRecent(n - 1 - i);
+            timestampsOut[i] = timestamps[idx];
+            wattsOut[i] = watts[idx];
+        }
+        return n;
+    }
+
+    /**
+     * @param since millis, only samples not older than this timestamp are counted
+     */
+    public synchronized Stats stats(long since) {
+        int count = 0;
+        double sum = 0;
+        double min = Double.MAX_VALUE;
+        double max = 0;
+        for (int i = 0; i < size; ++i) {
+            int idx = indexOfRecent(i);
+            if (timestamps[idx] < since) {
+                break;
+            }
+            double w = watts[idx];
+            scratch[count++] = w;
+            sum += w;
+            if (w < min) {
+                min = w;
+            }
+            if (w > max) {
+                max = w;
+            }
+        }
+        var stats = new Stats();
+        stats.count = count;
+        if (count == 0) {
+            return stats;
+        }
+        Arrays.sort(scratch, 0, count);
+        stats.min = min;
+        stats.avg = sum / count;
+        stats.max = max;
+        stats.p99 = scratch[(int) Math.ceil(count * 0.99) - 1];
+        return stats;
+    }
+}
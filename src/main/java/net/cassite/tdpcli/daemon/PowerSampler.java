@@ -0,0 +1,82 @@
+package net.cassite.tdpcli.daemon;
+
+import io.vproxy.dep.vjson.JSON;
+import io.vproxy.dep.vjson.util.ArrayBuilder;
+import io.vproxy.dep.vjson.util.ObjectBuilder;
+import net.cassite.tdpcli.EnergyCounter;
+
+/**
+ * Converts energy counter readings into power samples.
+ */
+public class PowerSampler {
+    private volatile PowerRing ring;
+    private EnergyCounter lastCounter = null;
+    private long lastNanos = 0;
+
+    public PowerSampler(int capacity) {
+        this.ring = new PowerRing(capacity);
+    }
+
+    public PowerRing getRing() {
+        return ring;
+    }
+
+    public synchronized void setCapacity(int capacity) {
+        if (ring.capacity() == capacity) {
+            return;
+        }
+        ring = new PowerRing(capacity);
+    }
+
+    /**
+     * @param nanos System.nanoTime() when the counter is read
+     * @return the power since last record, or -1 if this is the first record
+     */
+    public synchronized double record(EnergyCounter counter, long nanos) {
+        var last = lastCounter;
+        long lastNanos = this.lastNanos;
+        lastCounter = counter;
+        this.lastNanos = nanos;
+        if (last == null || nanos <= lastNanos) {
+            return -1;
+        }
+        double watts = counter.joulesSince(last) / ((nanos - lastNanos) / 1_000_000_000.0);
+        ring.add(System.currentTimeMillis(), watts);
+        return watts;
+    }
+
+    /**
+     * @param samples number of recent samples to return
+     * @param windows seconds
+     */
+    public JSON.Instance<?> formatToJson(int samples, int[] windows) {
+        var ring = this.ring;
+        var timestamps = new long[Math.min(samples, ring.capacity())];
+        var watts = new double[timestamps.length];
+        int n = ring.recent(samples, timestamps, watts);
+
+        var samplesArr = new ArrayBuilder();
+        for (int i = 0; i < n; ++i) {
+            samplesArr.addInst(new ObjectBuilder()
+                .put("timestamp", timestamps[i])
+                .put("watts", watts[i])
+                .build());
+        }
+        long now = System.currentTimeMillis();
+        var statsObj = new ObjectBuilder();
+        for (int window : windows) {
+            var stats = ring.stats(now - window * 1000L);
+            statsObj.putInst(Integer.toString(window), new ObjectBuilder()
+                .put("count", stats.count)
+                .put("min", stats.min)
+                .put("avg", stats.avg)
+                .put("max", stats.max)
+                .put("p99", stats.p99)
+                .build());
+        }
+        return new ObjectBuilder()
+            .putInst("samples", samplesArr.build())
+            .putInst("stats", statsObj.build())
+            .build();
+    }
+}
@@ -0,0 +1,138 @@
+package net.cassite.tdpcli.daemon;
+
+import io.vproxy.dep.vjson.JSON;
+import io.vproxy.dep.vjson.deserializer.rule.ObjectRule;
+import io.vproxy.dep.vjson.deserializer.rule.Rule;
+import io.vproxy.dep.vjson.util.ObjectBuilder;
+import net.cassite.tdpcli.Args;
+import net.cassite.tdpcli.EX;
+import net.cassite.tdpcli.util.Utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Durable desired state of the daemon: the desired power limit and the config fields modified via the api.<br>
+ * Fields which are never modified via the api are not saved, so the config file keeps deciding them.<br>
+ * The file is replaced atomically: the content is written and fsynced to a temp file,
+ * which is then renamed over the state file, and the directory is fsynced.
+ * Saving is done on a dedicated thread, only the latest pending content is written.
+ */
+public class StateStore {
+    public static final class State {
+        public PowerLimitArgs args;
+        public ConfigArgs config;
+
+        public static final Rule<State> rule = new ObjectRule<>(State::new)
+            .put("args", (o, a) -> o.args = a, PowerLimitArgs.rule)
+            .put("config", (o, c) -> o.config = c, ConfigArgs.rule);
+    }
+
+    private final Path path;
+    private final Path tmp;
+    private final AtomicReference<String> pending = new AtomicReference<>();
+    private final ConfigArgs configOverrides = new ConfigArgs(); // only accessed on the thread calling load/save
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        var t = new Thread(r, "state-thread");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public StateStore(Path path) {
+        this.path = path;
+        this.tmp = path.resolveSibling(path.getFileName() + ".tmp");
+    }
+
+    /**
+     * @return null if the state is never saved
+     */
+    public State load() {
+        String content;
+        try {
+            content = Files.readString(path);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new EX("failed to read " + path, e);
+        }
+        State state;
+        try {
+            state = JSON.deserialize(content, State.rule);
+        } catch (RuntimeException e) {
+            throw new EX("invalid state file " + path, e);
+        }
+        if (state.config != null) {
+            configOverrides.from(state.config);
+        }
+        return state;
+    }
+
+    /**
+     * Record the config fields modified via the api, they are saved with the next {@link #save(Args)}.
+     */
+    public void recordConfig(ConfigArgs modified) {
+        configOverrides.from(modified);
+    }
+
+    /**
+     * Serialize the state now and write it asynchronously.
+     *
+     * @param args null if no power limit is desired yet
+     */
+    public void save(Args args) {
+        var ob = new ObjectBuilder();
+        if (args != null) {
+            ob.putInst("args", PowerLimitArgs.formatToJson(args));
+        }
+        var content = ob.putInst("config", configOverrides.formatToJson()).build().pretty();
+        if (pending.getAndSet(content) == null) {
+            executor.execute(this::flush);
+        }
+    }
+
+    private void flush() {
+        var content = pending.getAndSet(null);
+        if (content == null) {
+            return;
+        }
+        try {
+            write(content);
+            Utils.debug("state is saved to " + path);
+        } catch (IOException e) {
+            Utils.error("failed to save state to " + path + ": " + e);
+        }
+    }
+
+    private void write(String content) throws IOException {
+        var dir = path.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        try (var ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            var buf = ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8));
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+            ch.force(true);
+        }
+        try {
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+        // make the rename durable, directories cannot be opened on windows
+        try (var ch = FileChannel.open(dir, StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (IOException ignore) {
+        }
+    }
+}
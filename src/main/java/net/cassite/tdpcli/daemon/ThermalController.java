@@ -0,0 +1,113 @@
+package net.cassite.tdpcli.daemon;
+
+import io.vproxy.dep.vjson.JSON;
+import io.vproxy.dep.vjson.util.ObjectBuilder;
+
+/**
+ * PID controller which steers a pl1 cap to keep the package temperature at the configured target.<br>
+ * The error is target - temperature, so a cool package raises the cap and a hot one lowers it.
+ * The derivative term works on the measurement to avoid kicks when the target is modified,
+ * and the integral term stops integrating while the output is saturated.
+ * The integral term starts at the upper bound, so the cap is not lowered until the package gets hot.<br>
+ * The cap is rounded down to whole watts, and only a different cap is reported as changed.<br>
+ * Not thread safe, must be used on the event loop.
+ */
+public class ThermalController {
+    public static final class Decision {
+        public final long timestamp;
+        public final double temperature; // celsius
+        public final double error;
+        public final double p; // watts
+        public final double i; // watts
+        public final double d; // watts
+        public final double cap; // watts
+        public final boolean changed;
+
+        Decision(long timestamp, double temperature, double error, double p, double i, double d, double cap, boolean changed) {
+            this.timestamp = timestamp;
+            this.temperature = temperature;
+            this.error = error;
+            this.p = p;
+            this.i = i;
+            this.d = d;
+            this.cap = cap;
+            this.changed = changed;
+        }
+
+        public JSON.Object formatToJson() {
+            return new ObjectBuilder()
+                .put("timestamp", timestamp)
+                .put("temperature", temperature)
+                .put("error", error)
+                .put("p", p)
+                .put("i", i)
+                .put("d", d)
+                .put("cap", cap)
+                .put("changed", changed)
+                .build();
+        }
+    }
+
+    private final Config config;
+    private double integral = Double.NaN; // watts
+    private double lastTemperature;
+    private long lastNanos;
+    private double cap = Double.NaN;
+    private Decision last;
+
+    public ThermalController(Config config) {
+        this.config = config;
+    }
+
+    public void reset() {
+        integral = Double.NaN;
+        cap = Double.NaN;
+        last = null;
+    }
+
+    /**
+     * @param upper upper bound of the cap besides the configured ceiling, e.g. the desired pl1
+     */
+    public Decision update(double temperature, long nanos, double upper) {
+        upper = Math.min(upper, config.thermalPl1Ceiling);
+        double lower = Math.min(config.thermalPl1Floor, upper);
+
+        double error = config.thermalTarget - temperature;
+        double p = config.thermalKp * error;
+        double d = 0;
+        if (Double.isNaN(integral)) {
+            integral = upper;
+        } else {
+            double dt = (nanos - lastNanos) / 1_000_000_000.0;
+            if (dt > 0) {
+                d = -config.thermalKd * (temperature - lastTemperature) / dt;
+                double next = integral + config.thermalKi * error * dt;
+                double raw = next + p + d;
+                // conditional integration: do not wind up further while saturated
+                if (!(raw > upper && error > 0) && !(raw < lower && error < 0)) {
+                    integral = next;
+                }
+            }
+        }
+        integral = Math.max(lower, Math.min(upper, integral));
+        lastTemperature = temperature;
+        lastNanos = nanos;
+
+        double output = Math.max(lower, Math.min(upper, integral + p + d));
+        double newCap = Math.floor(output);
+        boolean changed = newCap != cap;
+        cap = newCap;
+        last = new Decision(System.currentTimeMillis(), temperature, error, p, integral, d, cap, changed);
+        return last;
+    }
+
+    public JSON.Object formatToJson() {
+        var ob = new ObjectBuilder()
+            .put("enabled", config.thermal)
+            .put("target", config.thermalTarget);
+        if (last != null) {
+            ob.putInst("last", last.formatToJson());
+        }
+        return ob.build();
+    }
+}
@@ -0,0 +1,157 @@
+package net.cassite.tdpcli.daemon;
+
+import net.cassite.tdpcli.EX;
+import net.cassite.tdpcli.util.Utils;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Accepts connections on a unix domain socket and relays them to the http server of the daemon,
+ * so local clients share the same routes, caches and enforcement as the tcp clients.<br>
+ * Each connection is served by two threads, one for each direction, which is fine for the
+ * short-lived requests of the cli.<br>
+ * On linux the socket is placed in /run/tdpcli by default, which only root can write, so another user
+ * cannot put a socket in its place. The cli also checks the owner of the peer before sending requests.
+ */
+public class UnixSocketRelay {
+    public static final String DEFAULT_PATH = System.getProperty("os.name").toLowerCase().contains("linux")
+        ? "/run/tdpcli/tdpcli.sock"
+        : Path.of(System.getProperty("java.io.tmpdir"), "tdpcli.sock").toString();
+
+    private final Path path;
+    private final InetSocketAddress target;
+    private ServerSocketChannel server;
+
+    public UnixSocketRelay(Path path, InetSocketAddress target) {
+        this.path = path;
+        if (target.getAddress().isAnyLocalAddress()) {
+            target = new InetSocketAddress(InetAddress.getLoopbackAddress(), target.getPort());
+        }
+        this.target = target;
+    }
+
+    public void start() {
+        try {
+            var parent = path.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            removeStaleSocket();
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            server.bind(UnixDomainSocketAddress.of(path));
+        } catch (IOException e) {
+            throw new EX("failed to listen on " + path, e);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+        var t = new Thread(this::acceptLoop, "unix-socket-accept");
+        t.setDaemon(true);
+        t.start();
+        Utils.info("daemon is listening on " + path);
+    }
+
+    /**
+     * The file is only removed if nothing is listening on it, a live socket is never taken over.
+     */
+    private void removeStaleSocket() throws IOException {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        if (!attrs.isOther()) {
+            throw new EX(path + " exists and is not a socket");
+        }
+        try (var ch = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            ch.connect(UnixDomainSocketAddress.of(path));
+            throw new EX("another process is listening on " + path);
+        } catch (IOException e) {
+            Utils.debug("removing the stale socket " + path + ": " + e);
+        }
+        Files.delete(path);
+    }
+
+    private void acceptLoop() {
+        while (true) {
+            SocketChannel client;
+            try {
+                client = server.accept();
+            } catch (IOException e) {
+                if (server.isOpen()) {
+                    Utils.error("failed to accept on " + path + ": " + e);
+                    continue;
+                }
+                return;
+            }
+            SocketChannel upstream;
+            try {
+                upstream = SocketChannel.open(target);
+            } catch (IOException e) {
+                Utils.error("failed to connect to " + target + ": " + e);
+                closeQuietly(client);
+                continue;
+            }
+            // both channels are closed when both directions are done
+            var remaining = new AtomicInteger(2);
+            pump(client, upstream, remaining, "unix-socket-request");
+            pump(upstream, client, remaining, "unix-socket-response");
+        }
+    }
+
+    private static void pump(SocketChannel from, SocketChannel to, AtomicInteger remaining, String name) {
+        var t = new Thread(() -> {
+            var buf = ByteBuffer.allocate(16 * 1024);
+            try {
+                while (from.read(buf) != -1) {
+                    buf.flip();
+                    while (buf.hasRemaining()) {
+                        to.write(buf);
+                    }
+                    buf.clear();
+                }
+                to.shutdownOutput();
+            } catch (IOException e) {
+                remaining.set(0);
+                closeQuietly(from);
+                closeQuietly(to);
+                return;
+            }
+            if (remaining.decrementAndGet() == 0) {
+                closeQuietly(from);
+                closeQuietly(to);
+            }
+        }, name);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private static void closeQuietly(SocketChannel ch) {
+        try {
+            ch.close();
+        } catch (IOException ignore) {
+        }
+    }
+
+    public void close() {
+        try {
+            if (server != null) {
+                server.close();
+            }
+            Files.deleteIfExists(path);
+        } catch (IOException ignore) {
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package net.cassite.tdpcli.daemon;
+
+import io.vproxy.dep.vjson.JSON;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Fan-out buffer of the watch stream.<br>
+ * Each event is encoded once into the server-sent events wire format and kept in a fixed size ring,
+ * every subscriber reads the ring at its own position. Publishing never waits for subscribers,
+ * a subscriber which falls behind by more than the capacity skips the overwritten events.<br>
+ * Not thread safe, must be used on the event loop.
+ */
+public class WatchHub {
+    public static final int DEFAULT_CAPACITY = 256;
+    public static final String ARGS = "args";
+    public static final String DRIFT = "drift";
+    public static final String REWRITE = "rewrite";
+    public static final String TELEMETRY = "telemetry";
+    public static final String HEARTBEAT = "heartbeat";
+
+    private static final byte[] HEARTBEAT_BYTES = ":heartbeat\n\n".getBytes(StandardCharsets.UTF_8);
+
+    public static final class Event {
+        public final long id;
+        public final String type;
+        public final byte[] bytes;
+
+        Event(long id, String type, byte[] bytes) {
+            this.id = id;
+            this.type = type;
+            this.bytes = bytes;
+        }
+    }
+
+    private final Event[] ring;
+    private long next = 0; // id of the next event
+    private ArrayList<Runnable> waiters = new ArrayList<>();
+    private int subscribers = 0;
+
+    public WatchHub(int capacity) {
+        this.ring = new Event[capacity];
+    }
+
+    /**
+     * @return id of the next published event
+     */
+    public long next() {
+        return next;
+    }
+
+    /**
+     * @return id of the oldest event still in the ring
+     */
+    public long oldest() {
+        return Math.max(0, next - ring.length);
+    }
+
+    /**
+     * @return null if the event is not published yet or already overwritten
+     */
+    public Event get(long id) {
+        if (id >= next || id < oldest()) {
+            return null;
+        }
+        return ring[(int) (id % ring.length)];
+    }
+
+    public void publish(String type, JSON.Instance<?> data) {
+        var s = "id: " + next + "\nevent: " + type + "\ndata: " + data.stringify() + "\n\n";
+        add(type, s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Publish a comment, which lets subscribers find out closed connections while nothing happens.
+     */
+    public void heartbeat() {
+        add(HEARTBEAT, HEARTBEAT_BYTES);
+    }
+
+    private void add(String type, byte[] bytes) {
+        ring[(int) (next % ring.length)] = new Event(next, type, bytes);
+        ++next;
+        // waiters may register again when they are run
+        var waiters = this.waiters;
+        this.waiters = new ArrayList<>();
+        for (var w : waiters) {
+            w.run();
+        }
+    }
+
+    /**
+     * Run the callback once when the next event is published.
+     */
+    public void await(Runnable callback) {
+        waiters.add(callback);
+    }
+
+    /**
+     * @return the event telling a subscriber how many events it skipped
+     */
+    public static byte[] lagged(long skipped) {
+        return ("event: lagged\ndata: {\"skipped\":" + skipped + "}\n\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    public void subscribe() {
+        ++subscribers;
+    }
+
+    public void unsubscribe() {
+        --subscribers;
+    }
+
+    public boolean hasSubscribers() {
+        return subscribers > 0;
+    }
+}
@@ -0,0 +1,12 @@
+package net.cassite.tdpcli.daemon.telemetry;
+
+public interface RecordVisitor {
+    /**
+     * @param timestamp millis
+     * @param watts     package power
+     * @param pl1       watts, NaN if unknown
+     * @param pl2       watts, NaN if unknown
+     * @param drift     whether the power limit was found modified by someone else
+     */
+    void visit(long timestamp, double watts, float pl1, float pl2, boolean drift);
+}
@@ -0,0 +1,25 @@
+package net.cassite.tdpcli.daemon.telemetry;
+
+public enum Resolution {
+    raw("raw", 0),
+    second("1s", 1000),
+    minute("1m", 60_000),
+    hour("1h", 3_600_000),
+    ;
+    public final String text;
+    public final long millis;
+
+    Resolution(String text, long millis) {
+        this.text = text;
+        this.millis = millis;
+    }
+
+    public static Resolution fromText(String text) {
+        for (var r : values()) {
+            if (r.text.equals(text)) {
+                return r;
+            }
+        }
+        return null;
+    }
+}
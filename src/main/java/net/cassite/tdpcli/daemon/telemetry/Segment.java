@@ -0,0 +1,165 @@
+package net.cassite.tdpcli.daemon.telemetry;
+
+import net.cassite.tdpcli.EX;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A memory-mapped file of fixed-width records, appended in timestamp order.
+ * <pre>
+ * header (64 bytes):
+ *   magic     int
+ *   version   int
+ *   reserved  long
+ *   count     long, updated after the record is written
+ * record (32 bytes):
+ *   timestamp long, millis
+ *   watts     double
+ *   pl1       float
+ *   pl2       float
+ *   flags     int, bit 0: drift
+ *   reserved  int
+ * </pre>
+ */
+class Segment {
+    static final int MAGIC = 0x54445054; // TDPT
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int RECORD_SIZE = 32;
+    private static final int COUNT_OFFSET = 16;
+    private static final int FLAG_DRIFT = 1;
+
+    final Path path;
+    final int capacity;
+    private final MappedByteBuffer buf;
+    private long count;
+
+    private Segment(Path path, MappedByteBuffer buf) {
+        this.path = path;
+        this.buf = buf;
+        this.capacity = (buf.capacity() - HEADER_SIZE) / RECORD_SIZE;
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static MappedByteBuffer map(Path path, long size) {
+        try (var ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // the mapping stays valid after the channel is closed
+            return ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            throw new EX("failed to map " + path, e);
+        }
+    }
+
+    static Segment create(Path path, int capacity) {
+        var seg = new Segment(path, map(path, HEADER_SIZE + (long) capacity * RECORD_SIZE));
+        seg.buf.putInt(0, MAGIC);
+        seg.buf.putInt(4, VERSION);
+        seg.buf.putLong(COUNT_OFFSET, 0);
+        seg.count = 0;
+        return seg;
+    }
+
+    static Segment open(Path path) {
+        long size;
+        try {
+            size = Files.size(path);
+        } catch (IOException e) {
+            throw new EX("failed to retrieve size of " + path, e);
+        }
+        if (size < HEADER_SIZE) {
+            throw new EX("invalid telemetry segment " + path + ": too small");
+        }
+        var seg = new Segment(path, map(path, size));
+        if (seg.buf.getInt(0) != MAGIC || seg.buf.getInt(4) != VERSION) {
+            throw new EX("invalid telemetry segment " + path + ": unknown header");
+        }
+        long count = seg.buf.getLong(COUNT_OFFSET);
+        if (count < 0 || count > seg.capacity) {
+            throw new EX("invalid telemetry segment " + path + ": count = " + count);
+        }
+        seg.count = count;
+        return seg;
+    }
+
+    long count() {
+        return count;
+    }
+
+    boolean isFull() {
+        return count >= capacity;
+    }
+
+    long bytes() {
+        return buf.capacity();
+    }
+
+    private int pos(long idx) {
+        return (int) (HEADER_SIZE + idx * RECORD_SIZE);
+    }
+
+    long timestampAt(long idx) {
+        return buf.getLong(pos(idx));
+    }
+
+    long firstTimestamp() {
+        return timestampAt(0);
+    }
+
+    long lastTimestamp() {
+        return timestampAt(count - 1);
+    }
+
+    void append(long timestamp, double watts, float pl1, float pl2, boolean drift) {
+        int pos = pos(count);
+        buf.putLong(pos, timestamp);
+        buf.putDouble(pos + 8, watts);
+        buf.putFloat(pos + 16, pl1);
+        buf.putFloat(pos + 20, pl2);
+        buf.putInt(pos + 24, drift ? FLAG_DRIFT : 0);
+        buf.putInt(pos + 28, 0);
+        ++count;
+        buf.putLong(COUNT_OFFSET, count);
+    }
+
+    /**
+     * @return number of visited records
+     */
+    int scan(long from, long to, int limit, RecordVisitor visitor) {
+        if (count == 0 || limit <= 0 || lastTimestamp() < from || firstTimestamp() > to) {
+            return 0;
+        }
+        // find the first record not older than from
+        long lo = 0;
+        long hi = count;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (timestampAt(mid) < from) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int n = 0;
+        for (long i = lo; i < count && n < limit; ++i) {
+            int pos = pos(i);
+            long ts = buf.getLong(pos);
+            if (ts > to) {
+                break;
+            }
+            visitor.visit(ts, buf.getDouble(pos + 8), buf.getFloat(pos + 16), buf.getFloat(pos + 20),
+                (buf.getInt(pos + 24) & FLAG_DRIFT) != 0);
+            ++n;
+        }
+        return n;
+    }
+
+    void force() {
+        buf.force();
+    }
+}
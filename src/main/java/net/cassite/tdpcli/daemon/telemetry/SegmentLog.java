@@ -0,0 +1,124 @@
+package net.cassite.tdpcli.daemon.telemetry;
+
+import net.cassite.tdpcli.EX;
+import net.cassite.tdpcli.util.Utils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Segments of one resolution, stored in one directory.<br>
+ * The oldest segments are evicted when the total size exceeds the budget.
+ */
+class SegmentLog {
+    private static final String SUFFIX = ".seg";
+
+    private final Path dir;
+    private final int segmentCapacity;
+    private final long budget;
+    private final List<Segment> segments = new ArrayList<>();
+    // mapped files cannot be deleted on windows until they are unmapped by gc
+    private final List<Path> pendingDeletes = new ArrayList<>();
+    private long lastTimestamp = Long.MIN_VALUE;
+
+    SegmentLog(Path dir, int segmentCapacity, long budget) {
+        this.dir = dir;
+        this.segmentCapacity = segmentCapacity;
+        this.budget = budget;
+        List<Path> files;
+        try {
+            Files.createDirectories(dir);
+            try (var stream = Files.list(dir)) {
+                files = new ArrayList<>(stream.filter(p -> p.getFileName().toString().endsWith(SUFFIX)).toList());
+            }
+        } catch (IOException e) {
+            throw new EX("failed to load telemetry directory " + dir, e);
+        }
+        files.sort(null); // file names are zero-padded timestamps
+        for (var f : files) {
+            Segment seg;
+            try {
+                seg = Segment.open(f);
+            } catch (EX e) {
+                Utils.warn(e.getMessage() + ", the file is removed");
+                delete(f);
+                continue;
+            }
+            if (seg.count() == 0) {
+                delete(f);
+                continue;
+            }
+            segments.add(seg);
+            lastTimestamp = seg.lastTimestamp();
+        }
+        Utils.debug("loaded " + segments.size() + " telemetry segments from " + dir);
+    }
+
+    void append(long timestamp, double watts, float pl1, float pl2, boolean drift) {
+        if (timestamp < lastTimestamp) {
+            timestamp = lastTimestamp; // keep records ordered even if the clock goes backwards
+        }
+        var seg = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (seg == null || seg.isFull()) {
+            if (seg != null) {
+                seg.force(); // only the last segment is forced later
+            }
+            seg = Segment.create(dir.resolve(String.format("%016d", timestamp) + SUFFIX), segmentCapacity);
+            segments.add(seg);
+            evict();
+        }
+        seg.append(timestamp, watts, pl1, pl2, drift);
+        lastTimestamp = timestamp;
+    }
+
+    /**
+     * @return timestamp of the last record, Long.MIN_VALUE if empty
+     */
+    long lastTimestamp() {
+        return lastTimestamp;
+    }
+
+    private void evict() {
+        long total = 0;
+        for (var seg : segments) {
+            total += seg.bytes();
+        }
+        while (total > budget && segments.size() > 1) {
+            var seg = segments.remove(0);
+            total -= seg.bytes();
+            Utils.debug("evict telemetry segment " + seg.path);
+            pendingDeletes.add(seg.path);
+        }
+        pendingDeletes.removeIf(this::delete);
+    }
+
+    private boolean delete(Path p) {
+        try {
+            Files.deleteIfExists(p);
+            return true;
+        } catch (IOException e) {
+            Utils.debug("failed to delete " + p + ", will retry later: " + e);
+            return false;
+        }
+    }
+
+    int scan(long from, long to, int limit, RecordVisitor visitor) {
+        int n = 0;
+        for (var seg : segments) {
+            n += seg.scan(from, to, limit - n, visitor);
+            if (n >= limit) {
+                break;
+            }
+        }
+        return n;
+    }
+
+    void force() {
+        if (!segments.isEmpty()) {
+            segments.get(segments.size() - 1).force();
+        }
+    }
+}
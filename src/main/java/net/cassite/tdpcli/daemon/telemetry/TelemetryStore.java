@@ -0,0 +1,106 @@
+package net.cassite.tdpcli.daemon.telemetry;
+
+import net.cassite.tdpcli.util.Utils;
+
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Persistent power and limit history.<br>
+ * Raw records are appended to memory-mapped segment files,
+ * and rollups are generated for each {@link Resolution} while appending:
+ * watts is the average, pl1/pl2 are the latest values, and drift is set if any record in the bucket has it.
+ * Each resolution is evicted separately by the size budget.<br>
+ * The buckets being filled are only kept in memory, they are rebuilt from the raw records when the store is opened.
+ */
+public class TelemetryStore {
+    private static final int SEGMENT_CAPACITY = 32768; // 1 MiB for each segment
+
+    private final Map<Resolution, SegmentLog> logs = new EnumMap<>(Resolution.class);
+    private final Map<Resolution, Bucket> buckets = new EnumMap<>(Resolution.class);
+
+    private static final class Bucket {
+        long start = -1;
+        int count;
+        double watts;
+        float pl1;
+        float pl2;
+        boolean drift;
+    }
+
+    /**
+     * @param budget bytes for each resolution
+     */
+    public TelemetryStore(Path dir, long budget) {
+        for (var r : Resolution.values()) {
+            logs.put(r, new SegmentLog(dir.resolve(r.text), SEGMENT_CAPACITY, budget));
+            if (r != Resolution.raw) {
+                buckets.put(r, new Bucket());
+            }
+        }
+        restoreBuckets();
+    }
+
+    /**
+     * Feed the raw records after the last written rollup of each resolution into its bucket,
+     * so the buckets which were not complete when the previous daemon stopped are not lost.
+     */
+    private void restoreBuckets() {
+        var raw = logs.get(Resolution.raw);
+        for (var entry : buckets.entrySet()) {
+            var r = entry.getKey();
+            var b = entry.getValue();
+            long last = logs.get(r).lastTimestamp();
+            long from = last == Long.MIN_VALUE ? Long.MIN_VALUE : last + r.millis;
+            int n = raw.scan(from, Long.MAX_VALUE, Integer.MAX_VALUE, (ts, watts, pl1, pl2, drift) -> add(r, b, ts, watts, pl1, pl2, drift));
+            if (n > 0) {
+                Utils.debug("restored " + n + " raw records into " + r.text + " rollups");
+            }
+        }
+    }
+
+    public synchronized void append(long timestamp, double watts, float pl1, float pl2, boolean drift) {
+        logs.get(Resolution.raw).append(timestamp, watts, pl1, pl2, drift);
+        for (var entry : buckets.entrySet()) {
+            add(entry.getKey(), entry.getValue(), timestamp, watts, pl1, pl2, drift);
+        }
+    }
+
+    private void add(Resolution r, Bucket b, long timestamp, double watts, float pl1, float pl2, boolean drift) {
+        long start = timestamp - timestamp % r.millis;
+        if (b.start != start) {
+            if (b.count > 0) {
+                logs.get(r).append(b.start, b.watts / b.count, b.pl1, b.pl2, b.drift);
+            }
+            b.start = start;
+            b.count = 0;
+            b.watts = 0;
+            b.drift = false;
+        }
+        ++b.count;
+        b.watts += watts;
+        b.pl1 = pl1;
+        b.pl2 = pl2;
+        b.drift |= drift;
+    }
+
+    /**
+     * Visit records in [from, to] directly from the mapped segments.<br>
+     * Rollup buckets are only visible after they are complete.
+     *
+     * @return number of visited records
+     */
+    public synchronized int query(Resolution resolution, long from, long to, int limit, RecordVisitor visitor) {
+        return logs.get(resolution).scan(from, to, limit, visitor);
+    }
+
+    /**
+     * Write the mapped records to the disk, otherwise they are only written when the os decides to.
+     */
+    public synchronized void force() {
+        for (var log : logs.values()) {
+            log.force();
+        }
+    }
+}
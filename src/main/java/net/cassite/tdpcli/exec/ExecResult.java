@@ -0,0 +1,25 @@
+package net.cassite.tdpcli.exec;
+
+public class ExecResult {
+    public final int exitCode;
+    public final String stdout;
+    public final String stderr;
+    public final long nanos;
+
+    public ExecResult(int exitCode, String stdout, String stderr, long nanos) {
+        this.exitCode = exitCode;
+        this.stdout = stdout;
+        this.stderr = stderr;
+        this.nanos = nanos;
+    }
+
+    @Override
+    public String toString() {
+        return "ExecResult{" +
+            "exitCode=" + exitCode +
+            ", stdout='" + stdout + '\'' +
+            ", stderr='" + stderr + '\'' +
+            ", nanos=" + nanos +
+            '}';
+    }
+}
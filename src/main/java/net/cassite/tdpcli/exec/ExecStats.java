@@ -0,0 +1,69 @@
+package net.cassite.tdpcli.exec;
+
+import net.cassite.tdpcli.util.Histogram;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency and error counters of one kind of command.
+ */
+public class ExecStats {
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final Histogram latency = new Histogram();
+
+    void record(long nanos) {
+        latency.record(nanos);
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    void recordFailure() {
+        failures.increment();
+    }
+
+    void recordTimeout() {
+        timeouts.increment();
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    public Histogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public String toString() {
+        long count = getCount();
+        return "ExecStats{" +
+            "count=" + count +
+            ", avgMillis=" + (count == 0 ? 0 : getTotalNanos() / count / 1_000_000.0) +
+            ", maxMillis=" + getMaxNanos() / 1_000_000.0 +
+            ", failures=" + getFailures() +
+            ", timeouts=" + getTimeouts() +
+            '}';
+    }
+}
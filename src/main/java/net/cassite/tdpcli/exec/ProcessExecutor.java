@@ -0,0 +1,164 @@
+package net.cassite.tdpcli.exec;
+
+import net.cassite.tdpcli.EX;
+import net.cassite.tdpcli.util.Utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs external commands asynchronously.<br>
+ * The number of concurrently running children is capped,
+ * stdout and stderr are drained concurrently while the child is running,
+ * and the whole process tree is killed when the timeout is reached.
+ */
+public class ProcessExecutor {
+    public static final int DEFAULT_MAX_CONCURRENCY = 4;
+    public static final int DEFAULT_TIMEOUT_MILLIS = 5_000;
+
+    private static final ProcessExecutor defaultExecutor = new ProcessExecutor(DEFAULT_MAX_CONCURRENCY, DEFAULT_TIMEOUT_MILLIS);
+
+    public static ProcessExecutor getDefault() {
+        return defaultExecutor;
+    }
+
+    private static final class DrainBuffer {
+        final byte[] buf = new byte[4096];
+        final ByteArrayOutputStream output = new ByteArrayOutputStream(4096);
+    }
+
+    private static final ThreadLocal<DrainBuffer> drainBuffers = ThreadLocal.withInitial(DrainBuffer::new);
+
+    private final Semaphore permits;
+    private final long timeoutNanos;
+    private final ExecutorService pool;
+    private final Map<String, ExecStats> stats = new ConcurrentHashMap<>();
+
+    public ProcessExecutor(int maxConcurrency, int timeoutMillis) {
+        this.permits = new Semaphore(maxConcurrency);
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        var threadIndex = new AtomicInteger();
+        this.pool = Executors.newCachedThreadPool(r -> {
+            var t = new Thread(r, "tdpcli-exec-" + threadIndex.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * @param tag     the kind of the command, latency is recorded for each tag
+     * @param command the command and its arguments
+     */
+    public CompletableFuture<ExecResult> execute(String tag, String... command) {
+        return CompletableFuture.supplyAsync(() -> run(tag, command), pool);
+    }
+
+    /**
+     * Same as {@link #execute(String, String...)} but waits for the result.
+     * Exceptions are thrown as {@link EX}.
+     */
+    public ExecResult executeAndWait(String tag, String... command) {
+        try {
+            return execute(tag, command).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof EX) {
+                throw (EX) e.getCause();
+            }
+            throw new EX("failed to execute command " + Arrays.toString(command), e.getCause());
+        }
+    }
+
+    public Map<String, ExecStats> getStats() {
+        return stats;
+    }
+
+    public ExecStats getStats(String tag) {
+        return stats.computeIfAbsent(tag, k -> new ExecStats());
+    }
+
+    private ExecResult run(String tag, String[] command) {
+        permits.acquireUninterruptibly();
+        try {
+            return doRun(getStats(tag), command);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private ExecResult doRun(ExecStats stats, String[] command) {
+        Utils.debug("execute: " + Arrays.asList(command));
+        long start = System.nanoTime();
+        Process p;
+        try {
+            p = new ProcessBuilder(command).start();
+        } catch (IOException e) {
+            stats.recordFailure();
+            throw new EX("failed to execute command " + Arrays.toString(command), e);
+        }
+        var stdout = CompletableFuture.supplyAsync(() -> drain(p.getInputStream()), pool);
+        var stderr = CompletableFuture.supplyAsync(() -> drain(p.getErrorStream()), pool);
+
+        long deadline = start + timeoutNanos;
+        boolean exited;
+        while (true) {
+            try {
+                exited = p.waitFor(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException ignore) {
+                continue;
+            }
+            break;
+        }
+        if (!exited) {
+            stats.recordTimeout();
+            killTree(p);
+            throw new EX("failed to execute command " + Arrays.toString(command) + ": timeout");
+        }
+
+        String out;
+        String err;
+        try {
+            // the pipes may be inherited by grandchildren, so do not wait forever
+            out = stdout.get(timeoutNanos, TimeUnit.NANOSECONDS);
+            err = stderr.get(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            stats.recordFailure();
+            killTree(p);
+            throw new EX("failed to retrieve output of " + Arrays.toString(command), e);
+        }
+        long nanos = System.nanoTime() - start;
+        stats.record(nanos);
+        if (p.exitValue() != 0) {
+            stats.recordFailure();
+        }
+        Utils.debug("output: " + out + ", cost: " + nanos / 1_000_000.0 + "ms");
+        return new ExecResult(p.exitValue(), out, err, nanos);
+    }
+
+    private static String drain(InputStream input) {
+        var buffer = drainBuffers.get();
+        buffer.output.reset();
+        try (input) {
+            while (true) {
+                int n = input.read(buffer.buf);
+                if (n == -1) {
+                    break;
+                }
+                buffer.output.write(buffer.buf, 0, n);
+            }
+        } catch (IOException e) {
+            throw new EX("failed to read output", e);
+        }
+        return buffer.output.toString(Charset.defaultCharset());
+    }
+
+    private static void killTree(Process p) {
+        p.descendants().forEach(ProcessHandle::destroyForcibly);
+        p.destroyForcibly();
+    }
+}
@@ -0,0 +1,70 @@
+package net.cassite.tdpcli.util;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with fixed buckets.<br>
+ * All buckets are allocated in the constructor and recording only increments counters,
+ * so it can be used concurrently without locking.
+ */
+public class Histogram {
+    // seconds
+    public static final double[] DEFAULT_BOUNDS = {
+        0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10,
+    };
+
+    private final double[] bounds;
+    private final long[] boundNanos;
+    private final LongAdder[] buckets; // the last one is +Inf
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+
+    public Histogram() {
+        this(DEFAULT_BOUNDS);
+    }
+
+    public Histogram(double[] bounds) {
+        this.bounds = bounds.clone();
+        this.boundNanos = new long[bounds.length];
+        for (int i = 0; i < bounds.length; ++i) {
+            boundNanos[i] = (long) (bounds[i] * 1_000_000_000L);
+        }
+        this.buckets = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < buckets.length; ++i) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        int i = 0;
+        while (i < boundNanos.length && nanos > boundNanos[i]) {
+            ++i;
+        }
+        buckets[i].increment();
+        count.increment();
+        sumNanos.add(nanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSumNanos() {
+        return sumNanos.sum();
+    }
+
+    public int bucketCount() {
+        return bounds.length;
+    }
+
+    public double bound(int i) {
+        return bounds[i];
+    }
+
+    /**
+     * @return the number of records in bucket i, not cumulative
+     */
+    public long bucket(int i) {
+        return buckets[i].sum();
+    }
+}
@@ -0,0 +1,116 @@
+package net.cassite.tdpcli.util;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Builds the Prometheus text exposition format.<br>
+ * Labels are passed as name/value pairs: {@code "method", "GET", "route", "/"}
+ */
+public class MetricsBuilder {
+    private final StringBuilder sb = new StringBuilder(4096);
+    private final Set<String> described = new HashSet<>();
+
+    /**
+     * Writes HELP and TYPE of the metric, only the first call for each name takes effect.
+     */
+    public MetricsBuilder describe(String name, String type, String help) {
+        if (described.add(name)) {
+            sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        }
+        return this;
+    }
+
+    public MetricsBuilder sample(String name, double value, String... labels) {
+        sb.append(name);
+        appendLabels(labels, null);
+        sb.append(' ');
+        appendValue(value);
+        sb.append('\n');
+        return this;
+    }
+
+    public MetricsBuilder sample(String name, long value, String... labels) {
+        sb.append(name);
+        appendLabels(labels, null);
+        sb.append(' ').append(value).append('\n');
+        return this;
+    }
+
+    public MetricsBuilder histogram(String name, Histogram histogram, String... labels) {
+        long cumulative = 0;
+        for (int i = 0; i < histogram.bucketCount(); ++i) {
+            cumulative += histogram.bucket(i);
+            sb.append(name).append("_bucket");
+            appendLabels(labels, Double.toString(histogram.bound(i)));
+            sb.append(' ').append(cumulative).append('\n');
+        }
+        cumulative += histogram.bucket(histogram.bucketCount());
+        sb.append(name).append("_bucket");
+        appendLabels(labels, "+Inf");
+        sb.append(' ').append(cumulative).append('\n');
+        sb.append(name).append("_sum");
+        appendLabels(labels, null);
+        sb.append(' ');
+        appendValue(histogram.getSumNanos() / 1_000_000_000.0);
+        sb.append('\n');
+        sb.append(name).append("_count");
+        appendLabels(labels, null);
+        // use the bucket sum instead of getCount() so that _count always matches the +Inf bucket
+        sb.append(' ').append(cumulative).append('\n');
+        return this;
+    }
+
+    private void appendLabels(String[] labels, String le) {
+        if (labels.length == 0 && le == null) {
+            return;
+        }
+        sb.append('{');
+        boolean first = true;
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            sb.append(labels[i]).append("=\"");
+            appendEscaped(labels[i + 1]);
+            sb.append('"');
+        }
+        if (le != null) {
+            if (!first) {
+                sb.append(',');
+            }
+            sb.append("le=\"").append(le).append('"');
+        }
+        sb.append('}');
+    }
+
+    private void appendEscaped(String value) {
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                sb.append('\\').append(c);
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else {
+                sb.append(c);
+            }
+        }
+    }
+
+    private void appendValue(double value) {
+        if (Double.isNaN(value)) {
+            sb.append("NaN");
+        } else if (Double.isInfinite(value)) {
+            sb.append(value > 0 ? "+Inf" : "-Inf");
+        } else {
+            sb.append(value);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return sb.toString();
+    }
+}
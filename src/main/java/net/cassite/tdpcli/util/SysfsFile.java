@@ -0,0 +1,106 @@
+package net.cassite.tdpcli.util;
+
+import net.cassite.tdpcli.EX;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A pre-opened sysfs attribute, read and written with positional io at offset 0.<br>
+ * The file is opened read-only if writing is not permitted, in which case writing fails.
+ */
+public class SysfsFile implements Closeable {
+    private final Path path;
+    private final FileChannel ch;
+    private final boolean writable;
+    private final ByteBuffer buf = ByteBuffer.allocate(64);
+
+    public SysfsFile(Path path) {
+        this.path = path;
+        FileChannel ch;
+        boolean writable;
+        try {
+            ch = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            writable = true;
+        } catch (AccessDeniedException e) {
+            try {
+                ch = FileChannel.open(path, StandardOpenOption.READ);
+            } catch (IOException ee) {
+                throw new EX("failed to open " + path, ee);
+            }
+            writable = false;
+        } catch (IOException e) {
+            throw new EX("failed to open " + path, e);
+        }
+        this.ch = ch;
+        this.writable = writable;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public synchronized String readString() {
+        buf.clear();
+        try {
+            while (buf.hasRemaining()) {
+                int n = ch.read(buf, buf.position());
+                if (n == -1) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            throw new EX("failed to read " + path, e);
+        }
+        int len = buf.position();
+        for (int i = 0; i < len; ++i) {
+            if (buf.get(i) == '\n') {
+                len = i;
+                break;
+            }
+        }
+        return new String(buf.array(), 0, len, StandardCharsets.US_ASCII).trim();
+    }
+
+    public long readLong() {
+        var s = readString();
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            throw new EX("unexpected content of " + path + ": " + s);
+        }
+    }
+
+    public synchronized void writeString(String s) {
+        if (!writable) {
+            throw new EX("no permission to write " + path);
+        }
+        var b = ByteBuffer.wrap((s + "\n").getBytes(StandardCharsets.US_ASCII));
+        try {
+            while (b.hasRemaining()) {
+                ch.write(b, b.position());
+            }
+        } catch (IOException e) {
+            throw new EX("failed to write " + s + " to " + path, e);
+        }
+    }
+
+    public void writeLong(long n) {
+        writeString(Long.toString(n));
+    }
+
+    @Override
+    public void close() {
+        try {
+            ch.close();
+        } catch (IOException e) {
+            Utils.warn("failed to close " + path + ": " + e);
+        }
+    }
+}
@@ -45,6 +45,22 @@ public class Utils {
         }
     }
 
+    public static boolean isDecimal(String s) {
+        if (s.isEmpty()) {
+            return false;
+        }
+        int dots = 0;
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            if (c == '.') {
+                ++dots;
+            } else if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return dots <= 1 && !s.equals(".");
+    }
+
     private static final Set<String> trueBools = new HashSet<>() {
         {
             add("true");
@@ -0,0 +1,144 @@
+package net.cassite.tdpcli;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class PowerLimitCodecTest {
+    private static final int UNIT_BITS = 16;
+    // bits written by encode when all fields of args are set: pl1/pl2 power, pl2 enable, pl1/pl2 clamping, pl1 time window
+    private static final long ENCODED_BITS = PowerLimitCodec.POWER_MASK | (long) PowerLimitCodec.POWER_MASK << 32
+        | 1L << 47 | 1L << 16 | 1L << 48 | 0b1111111L << 17;
+
+    @Test
+    public void powerRoundTrip() {
+        for (int unit = 0; unit < UNIT_BITS; ++unit) {
+            var codec = PowerLimitCodec.of(unit, 0);
+            for (int raw = 0; raw <= PowerLimitCodec.POWER_MASK; ++raw) {
+                double watts = codec.decodePower(raw);
+                int encoded = codec.encodePower(watts);
+                assertEquals(raw, encoded, "power unit 1/2^" + unit + ", raw " + raw);
+                assertEquals(watts, codec.decodePower(encoded), "power unit 1/2^" + unit + ", raw " + raw);
+            }
+        }
+    }
+
+    @Test
+    public void powerSaturates() {
+        for (int unit = 0; unit < UNIT_BITS; ++unit) {
+            var codec = PowerLimitCodec.of(unit, 0);
+            assertEquals(0, codec.encodePower(-1));
+            assertEquals(PowerLimitCodec.POWER_MASK, codec.encodePower(codec.decodePower(PowerLimitCodec.POWER_MASK) + 1));
+        }
+    }
+
+    @Test
+    public void timeRoundTrip() {
+        for (int unit = 0; unit < UNIT_BITS; ++unit) {
+            var codec = PowerLimitCodec.of(0, unit);
+            for (int code = 0; code < PowerLimitCodec.TIME_CODES; ++code) {
+                double seconds = codec.decodeTime(code);
+                int encoded = codec.encodeTime(seconds);
+                assertEquals(code, encoded, "time unit 1/2^" + unit + ", code " + code);
+                assertEquals(seconds, codec.decodeTime(encoded), "time unit 1/2^" + unit + ", code " + code);
+            }
+        }
+    }
+
+    @Test
+    public void encodeTimeMatchesBruteForce() {
+        for (int unit = 0; unit < UNIT_BITS; ++unit) {
+            var codec = PowerLimitCodec.of(0, unit);
+            for (double seconds : timeInputs(codec)) {
+                assertEquals(bruteForceEncodeTime(codec, seconds), codec.encodeTime(seconds),
+                    "time unit 1/2^" + unit + ", seconds " + seconds);
+            }
+        }
+    }
+
+    @Test
+    public void registerRoundTrip() {
+        var rand = new Random(0x610);
+        for (int powerUnit = 0; powerUnit < UNIT_BITS; ++powerUnit) {
+            for (int timeUnit = 0; timeUnit < UNIT_BITS; ++timeUnit) {
+                var codec = PowerLimitCodec.of(powerUnit, timeUnit);
+                for (int i = 0; i < 1000; ++i) {
+                    long value = rand.nextLong();
+                    var limit = codec.decode(value);
+
+                    var args = new Args();
+                    args.pl1 = limit.pl1.power;
+                    args.pl2 = limit.pl2.power;
+                    args.enable2 = limit.pl2.enabled;
+                    args.clamping1 = limit.pl1.clamping;
+                    args.clamping2 = limit.pl2.clamping;
+                    args.time1 = limit.pl1.time;
+
+                    // the decoded fields are encoded to the same bits, whatever the bits were before
+                    assertEquals(value, codec.encode(value, args, 0, 0), "value 0x" + Long.toHexString(value));
+                    assertEquals(value & ENCODED_BITS, codec.encode(~value, args, 0, 0) & ENCODED_BITS,
+                        "value 0x" + Long.toHexString(value));
+                }
+            }
+        }
+    }
+
+    /**
+     * Every window, the midpoints between adjacent windows and their neighbours, values out of range,
+     * and a sweep over the common time windows.
+     */
+    private static List<Double> timeInputs(PowerLimitCodec codec) {
+        var windows = new ArrayList<Double>();
+        for (int code = 0; code < PowerLimitCodec.TIME_CODES; ++code) {
+            windows.add(codec.decodeTime(code));
+        }
+        windows.sort(null);
+
+        var inputs = new ArrayList<Double>();
+        for (int i = 0; i < windows.size(); ++i) {
+            double w = windows.get(i);
+            inputs.add(w);
+            inputs.add(Math.nextUp(w));
+            inputs.add(Math.nextDown(w));
+            if (i + 1 < windows.size()) {
+                double mid = (w + windows.get(i + 1)) / 2;
+                inputs.add(mid);
+                inputs.add(Math.nextUp(mid));
+                inputs.add(Math.nextDown(mid));
+            }
+        }
+        inputs.add(-1.0);
+        inputs.add(0.0);
+        inputs.add(windows.get(windows.size() - 1) * 2);
+        for (double s = 0; s <= 512; s += 1.0 / 64) {
+            inputs.add(s);
+        }
+        return inputs;
+    }
+
+    /**
+     * The search used before the codec was introduced: scan all (Y, Z) in time units and keep the first nearest.<br>
+     * 2^Y is computed as a long here, the original computed it as an int, which overflowed at Y = 31.
+     */
+    private static int bruteForceEncodeTime(PowerLimitCodec codec, double seconds) {
+        double t = seconds / codec.timeUnit;
+        int y = 0;
+        int z = 0;
+        double delta = Double.MAX_VALUE;
+        for (int yi = 0; yi < 32; ++yi) {
+            for (int zi = 0; zi < 4; ++zi) {
+                double d = Math.abs((double) (1L << yi) * (1 + zi / 4.0) - t);
+                if (delta > d) {
+                    delta = d;
+                    y = yi;
+                    z = zi;
+                }
+            }
+        }
+        return ((z & 0b11) << 5) | (y & 0b11111);
+    }
+}